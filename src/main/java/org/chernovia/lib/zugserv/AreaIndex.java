@@ -0,0 +1,103 @@
+package org.chernovia.lib.zugserv;
+
+import org.chernovia.lib.zugserv.enums.ZugAreaFilter;
+import org.chernovia.lib.zugserv.enums.ZugAreaSort;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * An AreaIndex keeps areas sorted by title and by creation order so that they can be listed a page at a time,
+ * starting from a cursor (the sort key of the last area of the previous page), without visiting every area.
+ */
+public class AreaIndex {
+
+    /**
+     * A page of areas.
+     * @param areas the areas
+     * @param cursor the cursor for the next page, or null if there are no further areas
+     */
+    public record Page(List<ZugArea> areas, String cursor) {}
+
+    /**
+     * Bounds how many areas (as a multiple of the page size) a single page may examine when filtering.
+     * A page that reaches this bound is returned short, with a cursor to resume from.
+     */
+    public static final int SCAN_FACTOR = 16;
+    private final AtomicLong serial = new AtomicLong();
+    private final ConcurrentSkipListMap<String, ZugArea> byTitle = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Long, ZugArea> bySerial = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<ZugArea, Long> serials = new ConcurrentHashMap<>();
+
+    void add(ZugArea area) {
+        long s = serial.incrementAndGet();
+        if (serials.putIfAbsent(area, s) == null) {
+            bySerial.put(s, area);
+            byTitle.put(area.getTitle(), area);
+        }
+    }
+
+    void remove(ZugArea area) {
+        Long s = serials.remove(area);
+        if (s != null) bySerial.remove(s);
+        byTitle.remove(area.getTitle(), area);
+    }
+
+    public int size() { return serials.size(); }
+
+    /**
+     * Gets a page of areas.
+     * @param sort the sort order
+     * @param cursor the cursor returned with the previous page, or null for the first page
+     * @param limit the maximum number of areas
+     * @param filter selects which areas to list
+     * @return the page
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public Page getPage(ZugAreaSort sort, String cursor, int limit, Predicate<ZugArea> filter) {
+        NavigableMap<?, ZugArea> view = switch (sort) {
+            case title -> cursor == null ? byTitle : byTitle.tailMap(cursor, false);
+            case oldest -> cursor == null ? bySerial : bySerial.tailMap(parseSerial(cursor), false);
+            case newest -> cursor == null ? bySerial.descendingMap() : bySerial.headMap(parseSerial(cursor), false).descendingMap();
+        };
+        List<ZugArea> page = new ArrayList<>();
+        int scanned = 0, maxScan = limit * SCAN_FACTOR;
+        for (Map.Entry<?, ZugArea> entry : view.entrySet()) {
+            if (filter.test(entry.getValue())) page.add(entry.getValue());
+            if (page.size() >= limit || ++scanned >= maxScan) {
+                return new Page(page, hasNext(view, entry.getKey()) ? entry.getKey().toString() : null);
+            }
+        }
+        return new Page(page, null);
+    }
+
+    private static <K> boolean hasNext(NavigableMap<K, ZugArea> view, Object key) {
+        @SuppressWarnings("unchecked") K k = (K) key;
+        return view.higherKey(k) != null;
+    }
+
+    private static long parseSerial(String cursor) {
+        try { return Long.parseLong(cursor); }
+        catch (NumberFormatException e) { throw new IllegalArgumentException("Bad cursor: " + cursor); }
+    }
+
+    /**
+     * Combines a set of filters (as an intersection).
+     * @param filters the filters
+     * @return a predicate matching areas that pass every filter
+     */
+    public static Predicate<ZugArea> toPredicate(Collection<ZugAreaFilter> filters) {
+        Predicate<ZugArea> predicate = area -> true;
+        for (ZugAreaFilter filter : filters) {
+            predicate = predicate.and(switch (filter) {
+                case joinable -> area -> !area.isPrivate() && area.getPassword().equals(ZugFields.UNKNOWN_STRING);
+                case running -> ZugArea::isRunning;
+                case space -> area -> area.getOccupants().size() < area.getMaxOccupants();
+                case guests -> area -> area.config.allowGuests;
+            });
+        }
+        return predicate;
+    }
+}
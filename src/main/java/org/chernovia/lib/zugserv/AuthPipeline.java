@@ -0,0 +1,63 @@
+package org.chernovia.lib.zugserv;
+
+import java.util.Optional;
+import java.util.concurrent.*;
+
+/**
+ * An AuthPipeline verifies login tokens (via IdentityProviders) off the message handling threads,
+ * with a bounded number of concurrent (and queued) verifications and a timeout for each.
+ * Requests beyond the queue limit fail immediately with a RejectedExecutionException, and timed out requests
+ * fail with a TimeoutException (their verification being interrupted).
+ */
+public class AuthPipeline {
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+
+    /**
+     * Creates an AuthPipeline.
+     * @param maxConcurrent the maximum number of concurrent verifications
+     * @param maxQueued the maximum number of verifications awaiting a thread
+     * @param timeoutMillis the maximum time (in millis) allowed for each verification, including time spent queued
+     */
+    public AuthPipeline(int maxConcurrent, int maxQueued, long timeoutMillis) {
+        executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, maxQueued)), r -> {
+            Thread thread = new Thread(r, "ZugAuth"); thread.setDaemon(true); return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Verifies a token.
+     * @param provider the IdentityProvider
+     * @param token the token
+     * @return the identity of the user the token identifies (or empty, if the token is invalid)
+     */
+    public CompletableFuture<Optional<IdentityProvider.Identity>> verify(IdentityProvider provider, String token) {
+        CompletableFuture<Optional<IdentityProvider.Identity>> result = new CompletableFuture<>();
+        try {
+            Future<?> task = executor.submit(() -> {
+                try { result.complete(provider.identify(token)); }
+                catch (Throwable e) { result.completeExceptionally(e); }
+            });
+            result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((name, e) -> {
+                if (e instanceof TimeoutException) task.cancel(true);
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of verifications in progress or awaiting a thread.
+     * @return the number of pending verifications
+     */
+    public int getPending() {
+        return executor.getActiveCount() + executor.getQueue().size();
+    }
+
+    public long getTimeout() { return timeoutMillis; }
+
+    public void shutdown() { executor.shutdownNow(); }
+}
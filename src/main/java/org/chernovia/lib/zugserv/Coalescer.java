@@ -0,0 +1,67 @@
+package org.chernovia.lib.zugserv;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * A Coalescer collapses bursts of superseding updates (such as occupant or area list snapshots) so that only the latest is sent.
+ * The first update submitted for a given key is delayed by the coalescing window, and any further updates submitted for the same key
+ * within that window replace it.  Since updates are Runnables, snapshots are best built when run (i.e., from the latest state).
+ */
+public class Coalescer {
+
+    /**
+     * Identifies a stream of superseding updates, e.g., (area, updateOccupants).
+     * @param scope the object being updated (typically a room or area)
+     * @param type the enumerated message type
+     */
+    public record Key(Object scope, Enum<?> type) {}
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ZugCoalescer"); thread.setDaemon(true); return thread;
+    });
+    private final ConcurrentHashMap<Key, Runnable> pending = new ConcurrentHashMap<>();
+    private volatile long windowMillis;
+
+    /**
+     * Creates a Coalescer.
+     * @param windowMillis the coalescing window (in millis), zero or less to run all updates immediately
+     */
+    public Coalescer(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    public long getWindow() { return windowMillis; }
+
+    public void setWindow(long windowMillis) { this.windowMillis = windowMillis; }
+
+    /**
+     * Submits an update, superseding any still pending update with the same key.
+     * @param key the update's key
+     * @param update the update
+     */
+    public void submit(Key key, Runnable update) {
+        long window = windowMillis;
+        if (window <= 0) update.run();
+        else if (pending.put(key, update) == null) {
+            scheduler.schedule(() -> flush(key), window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Cancels any pending update with the given key (for example, because a deletion has superseded it).
+     * @param key the update's key
+     */
+    public void cancel(Key key) {
+        pending.remove(key);
+    }
+
+    private void flush(Key key) {
+        Runnable update = pending.remove(key);
+        if (update != null) try { update.run(); }
+        catch (Exception e) { ZugHandler.log(Level.WARNING, "Update error: " + e.getMessage()); }
+    }
+}
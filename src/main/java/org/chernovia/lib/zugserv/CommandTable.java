@@ -0,0 +1,68 @@
+package org.chernovia.lib.zugserv;
+
+import java.util.*;
+
+/**
+ * An immutable, open-addressed hash table mapping (case-insensitive) message types to their CommandHandlers.
+ * Lookups neither allocate nor case-fold the incoming type String.
+ */
+final class CommandTable {
+    private static final ZugManager.CommandHandler[] NO_HANDLERS = new ZugManager.CommandHandler[0];
+    private final String[] keys;
+    private final ZugManager.CommandHandler[][] handlers;
+    private final int mask;
+
+    /**
+     * Builds a table from a list of enumerated command types and their handlers.
+     * Commands are keyed by name regardless of the server's verbosity (see ZugHandler.equalsType()), since ordinals are only
+     * unique within an enum class.  Commands sharing a name (i.e., from different enum classes) are dispatched in the order
+     * their classes were registered.
+     * @param commandList the enumerated command types
+     * @param handMap the handler for each command
+     * @return the new table
+     */
+    static CommandTable build(List<Class<? extends Enum<?>>> commandList, Map<Enum<?>, ZugManager.CommandHandler> handMap) {
+        Map<String, List<ZugManager.CommandHandler>> entries = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Class<? extends Enum<?>> cmdSet : commandList) {
+            for (Enum<?> e : cmdSet.getEnumConstants()) {
+                ZugManager.CommandHandler handler = handMap.get(e);
+                if (handler != null) {
+                    entries.computeIfAbsent(e.name(), k -> new ArrayList<>()).add(handler);
+                }
+            }
+        }
+        return new CommandTable(entries);
+    }
+
+    private CommandTable(Map<String, List<ZugManager.CommandHandler>> entries) {
+        int capacity = Integer.highestOneBit(Math.max(entries.size(), 1) * 2) << 1;
+        keys = new String[capacity];
+        handlers = new ZugManager.CommandHandler[capacity][];
+        mask = capacity - 1;
+        entries.forEach((key, list) -> {
+            int i = hash(key) & mask;
+            while (keys[i] != null) i = (i + 1) & mask;
+            keys[i] = key;
+            handlers[i] = list.toArray(NO_HANDLERS);
+        });
+    }
+
+    /**
+     * Gets the handlers for a message type.
+     * @param type the (case-insensitive) message type
+     * @return the handlers (empty if none)
+     */
+    ZugManager.CommandHandler[] lookup(String type) {
+        int i = hash(type) & mask;
+        for (String key = keys[i]; key != null; key = keys[i = (i + 1) & mask]) {
+            if (key.length() == type.length() && key.regionMatches(true, 0, type, 0, type.length())) return handlers[i];
+        }
+        return NO_HANDLERS;
+    }
+
+    private static int hash(String s) { //folded the same way as String.equalsIgnoreCase()
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        return h ^ (h >>> 16);
+    }
+}
@@ -1,5 +1,13 @@
 package org.chernovia.lib.zugserv;
 
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * The ConnAdapter Class performs some generic implementations of the ZugServ interface.
  */
@@ -7,11 +15,22 @@ public abstract class ConnAdapter implements Connection {
 	
 	private ZugServ server;
 	private boolean auto;
-	private Status status;
-	private long userID;
+	private volatile Status status;
+	private long userID = ConnectionRegistry.nextID();
+	private ConnectionRegistry registry = null;
 	long connectionTimeStamp = System.currentTimeMillis();;
 	private long latency = 0;
 	private long lastPing = System.currentTimeMillis();
+	private volatile OutboundQueue outboundQueue = null;
+	private final AtomicReference<String> origin = new AtomicReference<>();
+	private static final AtomicInteger taskThreadCount = new AtomicInteger();
+	private static final ExecutorService taskPool = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "ZugConnTask-" + taskThreadCount.getAndIncrement()); thread.setDaemon(true); return thread;
+	});
+	private final SerialExecutor serialExecutor = new SerialExecutor(taskPool);
+	private static final CompletableFuture<Void> WRITTEN = CompletableFuture.completedFuture(null);
+	private long floodCredit = -1, floodStamp = 0, floodViolations = 0;
+	private int floodStreak = 0;
 
 	public long getTimeConnected() {
 		return System.currentTimeMillis() - connectionTimeStamp;
@@ -33,15 +52,46 @@ public abstract class ConnAdapter implements Connection {
 		this.latency = latency;
 	}
 
-	public boolean isSameOrigin(Connection conn) { //TODO: remember what is this for
-		if (conn == null) return false; else return (conn.getID() == userID);
+	/**
+	 * Records the address the connection was opened from (normally in the subclass constructor), unless already recorded.
+	 * @param address the transport's remote address
+	 */
+	protected void setOrigin(String address) { origin.compareAndSet(null, address); }
+
+	/**
+	 * Gets the origin recorded by setOrigin(), or else the address at the time of the first call.
+	 * @return the origin
+	 */
+	@Override
+	public String getOrigin() {
+		if (origin.get() == null) origin.compareAndSet(null, getAddress());
+		return origin.get();
+	}
+
+	public boolean isSameOrigin(Connection conn) { //i.e., the same origin address, regardless of what the client claims
+		if (conn == null) return false; else return Objects.equals(conn.getOrigin(), getOrigin());
 	}
 	
 	public long getID() { return userID; }
 	public void setID(long id) { userID = id; }
 	
-	public void setStatus(Status s) { status = s; }
+	public synchronized void setStatus(Status s) {
+		Status prev = status; status = s;
+		if (registry != null) registry.statusChanged(prev, s);
+	}
 	public Status getStatus() { return status; }
+
+	synchronized void attach(ConnectionRegistry registry) {
+		this.registry = registry;
+		if (status == null) status = Status.STATUS_OK;
+		registry.statusChanged(null, status);
+	}
+
+	synchronized void detach(ConnectionRegistry registry) {
+		if (this.registry != registry) return;
+		registry.statusChanged(status, null);
+		this.registry = null;
+	}
 	
 	@Override
 	public void setServ(ZugServ serv) { server = serv; }
@@ -55,7 +105,74 @@ public abstract class ConnAdapter implements Connection {
 	@Override
 	public void automate(boolean a) { auto = a; }
 
+	/**
+	 * Sends an encoded message, either via the Connection's OutboundQueue (if any) or else directly via write().
+	 * @param msg the encoded message envelope
+	 */
 	@Override
-	public boolean isFlooding(int limit, long span) { return false; }
+	public void sendEncoded(EncodedMessage msg) {
+		OutboundQueue queue = outboundQueue;
+		if (queue != null) queue.add(msg); else write(msg);
+	}
+
+	/**
+	 * Writes an encoded message to the underlying transport (called from an OutboundQueue writer thread if queuing).
+	 * Transports able to write pre-encoded frames should override this, since by default the message is simply re-sent via tell().
+	 * @param msg the encoded message envelope
+	 */
+	protected void write(EncodedMessage msg) { tell(msg.getType(), msg.getData()); }
+
+	/**
+	 * Writes an encoded message without waiting on the transport (called from an OutboundQueue writer thread), so that a
+	 * slow client never holds a writer.  Transports whose sends block should override this; by default it calls write().
+	 * @param msg the encoded message envelope
+	 * @return a future completed once the message has been written (or the write has failed)
+	 */
+	protected CompletableFuture<Void> writeAsync(EncodedMessage msg) { write(msg); return WRITTEN; }
+
+	/**
+	 * Sets (or, if null, removes) the queue through which outgoing messages are asynchronously written.
+	 * @param queue an OutboundQueue
+	 */
+	public void setOutboundQueue(OutboundQueue queue) { outboundQueue = queue; }
+
+	public Optional<OutboundQueue> getOutboundQueue() { return Optional.ofNullable(outboundQueue); }
+
+	/**
+	 * Gets the Connection's serial context, whose queued tasks run on a shared pool (see Connection.getSerialExecutor()).
+	 * @return the SerialExecutor
+	 */
+	public SerialExecutor getSerialExecutor() { return serialExecutor; }
+
+	@Override
+	public boolean isFlooding(int limit, long span) { return isFlooding(1, limit, span); }
+
+	/**
+	 * Checks the current message against a token bucket holding up to limit messages and refilled at limit messages per span.
+	 * Credit is kept in (message * millisecond) units, so this neither allocates nor divides.
+	 * @param cost the weight of the current message
+	 * @param limit the acceptable amount of messages per a given timespan
+	 * @param span the timespan in milliseconds
+	 * @return true if flooding (in which case the message's cost is not deducted)
+	 */
+	@Override
+	public synchronized boolean isFlooding(int cost, int limit, long span) {
+		if (limit <= 0 || span <= 0) return false;
+		long now = System.currentTimeMillis(), capacity = limit * span;
+		floodCredit = floodCredit < 0 ? capacity : Math.min(capacity, floodCredit + Math.max(0, now - floodStamp) * limit);
+		floodStamp = now;
+		if (floodCredit >= cost * span) {
+			floodCredit -= cost * span; floodStreak = 0; return false;
+		}
+		floodStreak++; floodViolations++; return true;
+	}
+
+	/**
+	 * Gets the number of consecutive messages found to be flooding (see isFlooding()).
+	 * @return the number of messages
+	 */
+	public synchronized int getFloodStreak() { return floodStreak; }
+
+	public synchronized long getFloodViolations() { return floodViolations; }
 
 }
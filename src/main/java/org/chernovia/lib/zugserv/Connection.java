@@ -54,7 +54,13 @@ public interface Connection {
 	String getAddress();
 
 	/**
-	 * Indicates if a Connection is of the same origin as another.
+	 * Gets the address this Connection was opened from, which (unlike getAddress()) the client cannot change.
+	 * @return the origin (typically an internet address)
+	 */
+	String getOrigin();
+
+	/**
+	 * Indicates if a Connection is of the same origin as another (see getOrigin()).
 	 * @param conn a Connection Object
 	 * @return returns true if the two Connections share the same origin (typically an internet address)
 	 */
@@ -73,13 +79,22 @@ public interface Connection {
 	void automate(boolean a);
 
 	/**
-	 * Indicates if the Connection is currently flooding/spamming the server.  Currently unimplemented.
+	 * Indicates if the Connection is currently flooding/spamming the server, counting the current message.
 	 * @param limit the acceptable amount of messages per a given timespan
 	 * @param span the timespan in milliseconds
 	 * @return true if flooding
 	 */
 	boolean isFlooding(int limit, long span);
 
+	/**
+	 * Indicates if the Connection is currently flooding/spamming the server, counting the current message as a given number of messages.
+	 * @param cost the weight of the current message (e.g., by message type)
+	 * @param limit the acceptable amount of messages per a given timespan
+	 * @param span the timespan in milliseconds
+	 * @return true if flooding
+	 */
+	default boolean isFlooding(int cost, int limit, long span) { return cost > 0 && isFlooding(limit, span); }
+
 	/**
 	 * Closes a Connection.
 	 * @param reason An arbitrarily verbose string explanation of why the Connection is to be closed
@@ -100,6 +115,12 @@ public interface Connection {
 	 */
 	void tell(Enum<?> type, JsonNode msg); //TODO: make type an enum?
 
+	/**
+	 * Sends an already encoded message to a Connection (typically one of many recipients of the same broadcast).
+	 * @param msg the encoded message envelope
+	 */
+	void sendEncoded(EncodedMessage msg);
+
 	/**
 	 * Gets the status of a Connection.
 	 * @return the current status of a Connection
@@ -137,4 +158,11 @@ public interface Connection {
 	void setLatency(long t);
 
 	long getTimeConnected();
+
+	/**
+	 * Gets the Connection's serial context, in which its incoming messages and any asynchronous continuations
+	 * (e.g., of a token login) are handled one at a time, in order.
+	 * @return the Connection's SerialExecutor
+	 */
+	SerialExecutor getSerialExecutor();
 }
@@ -0,0 +1,169 @@
+package org.chernovia.lib.zugserv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A ConnectionRegistry is a thread-safe index of a server's Connections, both by transport session (e.g., a WebSocket)
+ * and by Connection ID, along with running counts of registered and active (i.e., Connection.Status.STATUS_OK) Connections.
+ * Iteration (see forEach()) is weakly consistent, so needn't copy the registry or block concurrent (dis)connections.
+ */
+public class ConnectionRegistry {
+
+    /**
+     * The outcome of a (capped) registration.
+     */
+    public enum Admission { ADMITTED, DUPLICATE, RATE_LIMITED, SERVER_FULL, ADDRESS_FULL }
+
+    private record Registration(Connection conn, String host) {}
+    private static final AtomicLong idCounter = new AtomicLong();
+    private final ConcurrentHashMap<Object, Registration> bySession = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Connection> byID = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> byHost = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger(), active = new AtomicInteger();
+    private final AtomicLong totalRegistered = new AtomicLong();
+
+    /**
+     * Allocates a new Connection ID, unique for the lifetime of the process.
+     * @return the ID
+     */
+    public static long nextID() {
+        return idCounter.incrementAndGet();
+    }
+
+    /**
+     * Registers a new Connection, marking it as active (i.e., Connection.Status.STATUS_OK) if its status is not yet set.
+     * Status changes of registered ConnAdapters are tracked, while those of other Connections are only counted upon (un)registration.
+     * @param session the transport session (e.g., a WebSocket)
+     * @param conn the Connection
+     * @return false if the session was already registered
+     */
+    public boolean register(Object session, Connection conn) {
+        return register(session, conn, null, 0, 0) == Admission.ADMITTED;
+    }
+
+    /**
+     * Registers a new Connection unless this would exceed the given caps.
+     * @param session the transport session (e.g., a WebSocket)
+     * @param conn the Connection
+     * @param host the Connection's host address (or null if unknown, in which case the per host cap is not applied)
+     * @param maxTotal the maximum number of registered Connections (zero or less for no maximum)
+     * @param maxPerHost the maximum number of registered Connections per host address (zero or less for no maximum)
+     * @return ADMITTED, DUPLICATE, SERVER_FULL or ADDRESS_FULL
+     */
+    public Admission register(Object session, Connection conn, String host, int maxTotal, int maxPerHost) {
+        if (bySession.containsKey(session)) return Admission.DUPLICATE;
+        if (size.incrementAndGet() > maxTotal && maxTotal > 0) {
+            size.decrementAndGet(); return Admission.SERVER_FULL;
+        }
+        if (host != null && !reserveHost(host, maxPerHost)) {
+            size.decrementAndGet(); return Admission.ADDRESS_FULL;
+        }
+        if (bySession.putIfAbsent(session, new Registration(conn, host)) != null) {
+            size.decrementAndGet(); if (host != null) releaseHost(host);
+            return Admission.DUPLICATE;
+        }
+        byID.put(conn.getID(), conn);
+        totalRegistered.incrementAndGet();
+        if (conn instanceof ConnAdapter adapter) adapter.attach(this);
+        else if (conn.getStatus() == Connection.Status.STATUS_OK) active.incrementAndGet();
+        return Admission.ADMITTED;
+    }
+
+    /**
+     * Unregisters a Connection.
+     * @param session the transport session
+     * @return the unregistered Connection, if any
+     */
+    public Optional<Connection> unregister(Object session) {
+        Registration reg = bySession.remove(session);
+        if (reg == null) return Optional.empty();
+        Connection conn = reg.conn();
+        size.decrementAndGet();
+        if (reg.host() != null) releaseHost(reg.host());
+        byID.remove(conn.getID(), conn);
+        if (conn instanceof ConnAdapter adapter) adapter.detach(this);
+        else if (conn.getStatus() == Connection.Status.STATUS_OK) active.decrementAndGet();
+        return Optional.of(conn);
+    }
+
+    private boolean reserveHost(String host, int max) {
+        boolean[] reserved = {false};
+        byHost.compute(host, (h, n) -> {
+            int count = n == null ? 0 : n;
+            if (max > 0 && count >= max) return n;
+            reserved[0] = true; return count + 1;
+        });
+        return reserved[0];
+    }
+
+    private void releaseHost(String host) {
+        byHost.computeIfPresent(host, (h, n) -> n > 1 ? n - 1 : null);
+    }
+
+    void statusChanged(Connection.Status prev, Connection.Status status) {
+        boolean wasActive = prev == Connection.Status.STATUS_OK, isActive = status == Connection.Status.STATUS_OK;
+        if (wasActive != isActive) active.addAndGet(isActive ? 1 : -1);
+    }
+
+    public Optional<Connection> get(Object session) {
+        Registration reg = bySession.get(session);
+        return reg == null ? Optional.empty() : Optional.of(reg.conn());
+    }
+
+    public Optional<Connection> getByID(long id) {
+        return Optional.ofNullable(byID.get(id));
+    }
+
+    /**
+     * Gets the number of registered Connections.
+     * @param active if true, counts only active Connections
+     * @return the number of Connections
+     */
+    public int count(boolean active) {
+        return active ? this.active.get() : size.get();
+    }
+
+    /**
+     * Gets the number of registered Connections from a given host address.
+     * @param host the host address
+     * @return the number of Connections
+     */
+    public int count(String host) {
+        return byHost.getOrDefault(host, 0);
+    }
+
+    /**
+     * Gets the number of Connections ever registered.
+     * @return the number of Connections
+     */
+    public long getTotalRegistered() { return totalRegistered.get(); }
+
+    /**
+     * Performs an action on each registered Connection (including those registered during iteration, or not).
+     * @param active if true, includes only active Connections
+     * @param action the action
+     */
+    public void forEach(boolean active, Consumer<Connection> action) {
+        for (Registration reg : bySession.values()) {
+            Connection conn = reg.conn();
+            if (!active || conn.getStatus() == Connection.Status.STATUS_OK) action.accept(conn);
+        }
+    }
+
+    /**
+     * Lists the registered Connections.
+     * @param active if true, includes only active Connections
+     * @return a new list of Connections
+     */
+    public List<Connection> list(boolean active) {
+        List<Connection> list = new ArrayList<>(count(active));
+        forEach(active, list::add);
+        return list;
+    }
+}
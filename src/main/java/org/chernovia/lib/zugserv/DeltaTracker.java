@@ -0,0 +1,185 @@
+package org.chernovia.lib.zugserv;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * A DeltaTracker sends versioned updates of a (scoped) snapshot, such as a room's occupant list, as JSON-patch-like diffs.
+ * It keeps a short history of recent snapshots along with the version last sent to each Connection, so that each recipient
+ * is sent a diff from whatever version it last received, or else (if that version is unknown or too old) a full snapshot.
+ * Recipients sharing the same base version share a single encoded message.
+ * <p>
+ * A full snapshot is sent as the snapshot itself plus a ZugFields.DELTA_VERSION field, and a diff as an object with
+ * ZugFields.DELTA_BASE, ZugFields.DELTA_VERSION and ZugFields.DELTA (an array of "add", "remove" and "replace" operations,
+ * each with a JSON pointer "path" and, except for "remove", a "value").  As in JSON Patch, operations apply in order,
+ * and adding or removing an array element shifts those after it.  A client whose current version doesn't match
+ * a diff's base should request a fresh snapshot (see reset()).
+ */
+public class DeltaTracker {
+    public static final String OP = "op", PATH = "path", VALUE = "value", ADD = "add", REMOVE = "remove", REPLACE = "replace";
+    private final int historySize;
+    private final Function<JsonNode, JsonNode> identity;
+    private final LinkedHashMap<Long, JsonNode> history = new LinkedHashMap<>();
+    private final Map<Connection, Long> sentVersions = new WeakHashMap<>();
+    private long version = 0;
+
+    /**
+     * Creates a DeltaTracker.
+     * @param historySize the number of previous snapshots from which to diff
+     */
+    public DeltaTracker(int historySize) {
+        this(historySize, DeltaTracker::identify);
+    }
+
+    /**
+     * Creates a DeltaTracker.
+     * @param historySize the number of previous snapshots from which to diff
+     * @param identity gets the identity of an array element (or null if it has none), see diff()
+     */
+    public DeltaTracker(int historySize, Function<JsonNode, JsonNode> identity) {
+        this.historySize = Math.max(1, historySize);
+        this.identity = identity;
+    }
+
+    /**
+     * Sends a snapshot to a group of recipients, each as a diff from the last version they were sent (if still known).
+     * @param type the enumerated message type
+     * @param snapshot the current snapshot (which is retained, so should not be subsequently altered)
+     * @param areaId the area id added to each message
+     * @param recipients the recipients
+     */
+    public synchronized void send(Enum<?> type, ObjectNode snapshot, String areaId, Collection<Connection> recipients) {
+        JsonNode latest = history.get(version);
+        if (latest == null || !latest.equals(snapshot)) {
+            history.put(++version, snapshot);
+            if (history.size() > historySize) history.remove(history.keySet().iterator().next());
+        }
+        Map<Long, EncodedMessage> messages = new HashMap<>();
+        for (Connection conn : recipients) {
+            Long base = sentVersions.get(conn);
+            if (base != null && base == version) continue;
+            long from = base != null && history.containsKey(base) ? base : -1;
+            conn.sendEncoded(messages.computeIfAbsent(from, b -> EncodedMessage.encode(type, b < 0 ?
+                    snapshot.deepCopy().put(ZugFields.AREA_ID, areaId).put(ZugFields.DELTA_VERSION, version) :
+                    ZugUtils.newJSON().put(ZugFields.AREA_ID, areaId)
+                            .put(ZugFields.DELTA_BASE, b).put(ZugFields.DELTA_VERSION, version)
+                            .set(ZugFields.DELTA, diff(history.get(b), snapshot, identity)))));
+            sentVersions.put(conn, version);
+        }
+    }
+
+    /**
+     * Forgets the version last sent to a Connection, so its next update will be a full snapshot (e.g., upon a client's version mismatch).
+     * @param conn the Connection
+     */
+    public synchronized void reset(Connection conn) {
+        sentVersions.remove(conn);
+    }
+
+    public synchronized long getVersion() { return version; }
+
+    /**
+     * Creates a list of JSON-patch-like operations transforming one JSON value into another, matching array elements by
+     * their default identity (see identify()).
+     * @param from the original value
+     * @param to the new value
+     * @return an array of operations
+     */
+    public static ArrayNode diff(JsonNode from, JsonNode to) {
+        return diff(from, to, DeltaTracker::identify);
+    }
+
+    /**
+     * Creates a list of JSON-patch-like operations transforming one JSON value into another.
+     * Objects are diffed field by field.  Arrays whose elements all have distinct identities are diffed by identity,
+     * i.e., departed elements are removed, new ones added and the rest diffed in place (unless they have been reordered).
+     * Otherwise, equally sized arrays are diffed element by element, and anything else is replaced outright.
+     * @param from the original value
+     * @param to the new value
+     * @param identity gets the identity of an array element (or null if it has none)
+     * @return an array of operations
+     */
+    public static ArrayNode diff(JsonNode from, JsonNode to, Function<JsonNode, JsonNode> identity) {
+        ArrayNode ops = ZugUtils.newJSONArray();
+        diff("", from, to, identity, ops);
+        return ops;
+    }
+
+    /**
+     * Gets the default identity of an array element: an object's ZugFields.USER (e.g., for an Occupant) or ZugFields.NAME field,
+     * or else the (scalar) element itself.
+     * @param element the array element
+     * @return the identity, or null if none
+     */
+    public static JsonNode identify(JsonNode element) {
+        if (element.isObject()) return element.has(ZugFields.USER) ? element.get(ZugFields.USER) : element.get(ZugFields.NAME);
+        return element.isContainerNode() ? null : element;
+    }
+
+    private static void diff(String path, JsonNode from, JsonNode to, Function<JsonNode, JsonNode> identity, ArrayNode ops) {
+        if (from.equals(to)) return;
+        if (from.isObject() && to.isObject()) {
+            from.fieldNames().forEachRemaining(field -> {
+                if (!to.has(field)) ops.add(ZugUtils.newJSON().put(OP, REMOVE).put(PATH, path + "/" + escape(field)));
+            });
+            to.fields().forEachRemaining(field -> {
+                JsonNode prev = from.get(field.getKey());
+                String fieldPath = path + "/" + escape(field.getKey());
+                if (prev == null) ops.add(ZugUtils.newJSON().put(OP, ADD).put(PATH, fieldPath).set(VALUE, field.getValue()));
+                else diff(fieldPath, prev, field.getValue(), identity, ops);
+            });
+        }
+        else if (!(from.isArray() && to.isArray() && diffArrays(path, from, to, identity, ops))) {
+            ops.add(ZugUtils.newJSON().put(OP, REPLACE).put(PATH, path).set(VALUE, to));
+        }
+    }
+
+    /**
+     * Diffs two arrays by the identities of their elements if possible, or else element by element if equally sized.
+     * @return false (having added no operations) if neither applies
+     */
+    private static boolean diffArrays(String path, JsonNode from, JsonNode to, Function<JsonNode, JsonNode> identity, ArrayNode ops) {
+        List<JsonNode> fromIds = identities(from, identity), toIds = identities(to, identity);
+        if (fromIds == null || toIds == null) return diffElements(path, from, to, identity, ops);
+        Set<JsonNode> fromSet = new HashSet<>(fromIds), toSet = new HashSet<>(toIds);
+        List<Integer> kept = new ArrayList<>(); //indices (into from) of retained elements
+        for (int i = 0; i < fromIds.size(); i++) if (toSet.contains(fromIds.get(i))) kept.add(i);
+        int k = 0;
+        for (JsonNode id : toIds) {
+            if (fromSet.contains(id) && !fromIds.get(kept.get(k++)).equals(id)) return diffElements(path, from, to, identity, ops); //reordered
+        }
+        for (int i = fromIds.size() - 1; i >= 0; i--) { //backwards, so that each index is still valid
+            if (!toSet.contains(fromIds.get(i))) ops.add(ZugUtils.newJSON().put(OP, REMOVE).put(PATH, path + "/" + i));
+        }
+        k = 0;
+        for (int i = 0; i < toIds.size(); i++) {
+            if (fromSet.contains(toIds.get(i))) diff(path + "/" + i, from.get(kept.get(k++)), to.get(i), identity, ops);
+            else ops.add(ZugUtils.newJSON().put(OP, ADD).put(PATH, path + "/" + i).set(VALUE, to.get(i)));
+        }
+        return true;
+    }
+
+    private static boolean diffElements(String path, JsonNode from, JsonNode to, Function<JsonNode, JsonNode> identity, ArrayNode ops) {
+        if (from.size() != to.size()) return false;
+        for (int i = 0; i < to.size(); i++) diff(path + "/" + i, from.get(i), to.get(i), identity, ops);
+        return true;
+    }
+
+    private static List<JsonNode> identities(JsonNode array, Function<JsonNode, JsonNode> identity) {
+        List<JsonNode> ids = new ArrayList<>(array.size());
+        Set<JsonNode> distinct = new HashSet<>();
+        for (JsonNode element : array) {
+            JsonNode id = identity.apply(element);
+            if (id == null || !distinct.add(id)) return null;
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static String escape(String field) { //as per RFC 6901
+        return field.replace("~", "~0").replace("/", "~1");
+    }
+}
@@ -0,0 +1,82 @@
+package org.chernovia.lib.zugserv;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An EncodedMessage is a server message envelope (type plus data) that has been serialized exactly once,
+ * allowing it to be sent to any number of Connections without re-serializing the payload for each recipient.
+ */
+public final class EncodedMessage {
+    private final Enum<?> type;
+    private final JsonNode data;
+    private final byte[] bytes;
+    private volatile String text;
+
+    private EncodedMessage(Enum<?> type, JsonNode data) {
+        this.type = type;
+        this.data = data;
+        ObjectNode node = ZugUtils.newJSON();
+        node.put(ZugFields.TYPE, type.name()); node.set(ZugFields.DATA, data);
+        bytes = ZugUtils.writeBytes(node);
+    }
+
+    /**
+     * Builds and encodes a message envelope.
+     * @param type the enumerated message type
+     * @param data the JSON-formatted message data
+     * @return the encoded message
+     */
+    public static EncodedMessage encode(Enum<?> type, JsonNode data) {
+        return new EncodedMessage(type, data);
+    }
+
+    /**
+     * Builds and encodes a message envelope from an alphanumeric message (as per Connection.tell(type,msg)).
+     * @param type the enumerated message type
+     * @param msg an alphanumeric message
+     * @return the encoded message
+     */
+    public static EncodedMessage encode(Enum<?> type, String msg) {
+        return new EncodedMessage(type, ZugUtils.newJSON().put(ZugFields.MSG, msg));
+    }
+
+    public Enum<?> getType() { return type; }
+
+    /**
+     * Gets the (unencoded) message data.  Note this should be treated as read-only, since altering it will not alter the encoding.
+     * @return the JSON-formatted message data
+     */
+    public JsonNode getData() { return data; }
+
+    /**
+     * Gets the UTF-8 encoding of the message envelope.  Do not modify the returned array.
+     * @return the encoded bytes
+     */
+    public byte[] getBytes() { return bytes; }
+
+    /**
+     * Wraps the encoded envelope in a new (read-only) buffer, so each recipient gets its own position without copying the bytes.
+     * @return a ByteBuffer view of the encoded message
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Gets the message envelope as a String (for transports that only accept text), decoded once and cached.
+     * @return the JSON-formatted message envelope
+     */
+    public String getText() {
+        String t = text;
+        if (t == null) {
+            t = new String(bytes, StandardCharsets.UTF_8); text = t;
+        }
+        return t;
+    }
+
+    @Override
+    public String toString() { return getText(); }
+}
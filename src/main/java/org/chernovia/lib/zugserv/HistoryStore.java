@@ -0,0 +1,53 @@
+package org.chernovia.lib.zugserv;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.util.List;
+
+/**
+ * A HistoryStore persists chat history (see MessageManager) in named channels, typically one per area or server.
+ * Each appended message is assigned the next sequence number of its channel, starting from zero.
+ */
+public interface HistoryStore {
+
+    /**
+     * A stored message.
+     * @param seq the message's sequence number within its channel
+     * @param msg the message
+     */
+    record Entry(long seq, JsonNode msg) {}
+
+    /**
+     * Appends a message to a channel.  Appends may be buffered (see flush()).
+     * @param channel the channel name
+     * @param msg the message
+     * @return the message's sequence number
+     */
+    long append(String channel, JsonNode msg);
+
+    /**
+     * Gets the most recent messages of a channel (oldest first).
+     * @param channel the channel name
+     * @param n the maximum number of messages
+     * @return the messages
+     */
+    List<Entry> tail(String channel, int n);
+
+    /**
+     * Gets a range of messages (e.g., for scrollback), starting from the oldest still stored message if fromSeq precedes it.
+     * @param channel the channel name
+     * @param fromSeq the first sequence number
+     * @param limit the maximum number of messages
+     * @return the messages
+     */
+    List<Entry> range(String channel, long fromSeq, int limit);
+
+    /**
+     * Forces all buffered appends to storage.
+     */
+    void flush();
+
+    /**
+     * Flushes and releases the store.
+     */
+    void close();
+}
@@ -0,0 +1,36 @@
+package org.chernovia.lib.zugserv;
+
+import java.util.Optional;
+
+/**
+ * An IdentityProvider verifies a login token with some authentication service (such as Lichess or Google).
+ * Verification runs on an AuthPipeline thread, so it may block.
+ */
+@FunctionalInterface
+public interface IdentityProvider {
+
+    /**
+     * A verified identity.
+     * @param name the name of the user a token identifies
+     * @param expires when (in epoch millis) the token expires (Long.MAX_VALUE if unknown)
+     */
+    record Identity(String name, long expires) {}
+
+    /**
+     * Verifies a login token.
+     * @param token the token
+     * @return the name of the user the token identifies (or empty, if the token is invalid)
+     * @throws Exception upon verification failure
+     */
+    Optional<String> verify(String token) throws Exception;
+
+    /**
+     * Verifies a login token, including its expiry (if known).  Providers that know their tokens' expiry should override this.
+     * @param token the token
+     * @return the identity (or empty, if the token is invalid)
+     * @throws Exception upon verification failure
+     */
+    default Optional<Identity> identify(String token) throws Exception {
+        return verify(token).map(name -> new Identity(name, Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,76 @@
+package org.chernovia.lib.zugserv;
+
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A MatchIndex keeps joinable (i.e., open) areas ordered by occupancy, in separate pools per matchmaking key (see ZugArea.getMatchKey()),
+ * so that finding an area to join randomly takes O(log n) rather than sorting every area.  Areas update their own entries as
+ * occupants join or part, and as they start (see ZugArea.updateMatchmaking()).
+ */
+public class MatchIndex {
+    private record Entry(Object key, int occupancy, long serial, ZugArea area) {}
+    private static final Comparator<Entry> ORDER = Comparator.comparingInt(Entry::occupancy).thenComparingLong(Entry::serial);
+    private final ConcurrentHashMap<Object, ConcurrentSkipListSet<Entry>> pools = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ZugArea, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong serial = new AtomicLong();
+
+    void add(ZugArea area) {
+        area.matchIndex = this;
+        update(area);
+    }
+
+    void remove(ZugArea area) {
+        if (area.matchIndex == this) area.matchIndex = null;
+        entries.computeIfPresent(area, (a, prev) -> { unpool(prev); return null; });
+    }
+
+    /**
+     * Refiles an area according to its current occupancy, matchmaking key, and joinability.
+     * @param area the area
+     */
+    void update(ZugArea area) {
+        entries.compute(area, (a, prev) -> {
+            if (prev != null) unpool(prev);
+            if (a.matchIndex != this || !isJoinable(a)) return null;
+            Entry entry = new Entry(a.getMatchKey(), a.getOccupants().size(), prev != null ? prev.serial() : serial.incrementAndGet(), a);
+            pools.computeIfAbsent(entry.key(), k -> new ConcurrentSkipListSet<>(ORDER)).add(entry);
+            return entry;
+        });
+    }
+
+    private void unpool(Entry entry) {
+        ConcurrentSkipListSet<Entry> pool = pools.get(entry.key());
+        if (pool != null) pool.remove(entry);
+    }
+
+    private boolean isJoinable(ZugArea area) {
+        return area.exists() && area.isOpen();
+    }
+
+    /**
+     * Finds the least occupied joinable area with a given matchmaking key.
+     * @param key the matchmaking key
+     * @return the area, if any
+     */
+    public Optional<ZugArea> findArea(Object key) {
+        ConcurrentSkipListSet<Entry> pool = pools.get(key);
+        if (pool == null) return Optional.empty();
+        for (Entry entry = first(pool); entry != null; entry = first(pool)) {
+            ZugArea area = entry.area();
+            if (isJoinable(area) && area.getOccupants().size() == entry.occupancy()) return Optional.of(area);
+            update(area); //stale entry, so refile and try again
+        }
+        return Optional.empty();
+    }
+
+    private static Entry first(ConcurrentSkipListSet<Entry> pool) {
+        try { return pool.first(); } catch (NoSuchElementException e) { return null; }
+    }
+
+    public int size() { return entries.size(); }
+}
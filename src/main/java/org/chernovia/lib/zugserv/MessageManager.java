@@ -1,22 +1,227 @@
 package org.chernovia.lib.zugserv;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * A MessageManager keeps a (fixed capacity) history of recent messages in a ring buffer, without locking: each append
+ * claims the next sequence number and publishes the message into its slot, in constant time.  Reads build (and cache) an
+ * immutable view of the history, along with its lazily built serialization, at most once per new message no matter how
+ * often the history is sent (see toJSONArray()).
+ * Optionally, messages are also persisted to a HistoryStore (see setStore()).
+ */
 public class MessageManager {
-    private final int maxMessages = 99;
-    private final List<JsonNode> messages = new ArrayList<>();
+    private static volatile int defaultCapacity = 99;
+    private record Sink(HistoryStore store, String channel) {}
+    private record Slot(long seq, JsonNode msg) {}
+    private final AtomicLong nextSeq = new AtomicLong();
+    private final AtomicReference<Ring> ring;
+    private volatile View view = null; //the most recently built view
+    private volatile Sink sink = null;
 
+    /**
+     * A fixed capacity ring of messages, each in the slot given by its sequence number.
+     */
+    private static final class Ring {
+        final AtomicReferenceArray<Slot> slots;
+        final long base; //the first sequence number held (earlier messages belong to a replaced ring)
+
+        Ring(int capacity, long base) {
+            slots = new AtomicReferenceArray<>(capacity); this.base = base;
+        }
+
+        int capacity() { return slots.length(); }
+
+        /**
+         * Places a message in its slot unless a later message already occupies it (so republishing is harmless).
+         */
+        void publish(Slot slot) {
+            int i = (int)(slot.seq() % capacity());
+            Slot prev;
+            do {
+                prev = slots.get(i);
+                if (prev != null && prev.seq() >= slot.seq()) return;
+            } while (!slots.compareAndSet(i, prev, slot));
+        }
+
+        /**
+         * Copies the messages up to (but excluding) a sequence number, oldest first, stopping at any not yet published.
+         */
+        View view(long end) {
+            long first = Math.max(base, end - capacity());
+            List<JsonNode> msgs = new ArrayList<>((int)(end - first));
+            long seq = first;
+            for (; seq < end; seq++) {
+                Slot slot = slots.get((int)(seq % capacity()));
+                if (slot == null || slot.seq() < seq) break; //still being appended
+                if (slot.seq() == seq) msgs.add(slot.msg()); //else already overwritten
+            }
+            return new View(this, seq, msgs.toArray(new JsonNode[0]));
+        }
+    }
+
+    /**
+     * An immutable history (oldest first), along with its lazily built serialization.
+     */
+    private static final class View {
+        final Ring ring;
+        final long end;
+        final JsonNode[] msgs;
+        volatile SerializedString serialized = null;
+
+        View(Ring ring, long end, JsonNode[] msgs) {
+            this.ring = ring; this.end = end; this.msgs = msgs;
+        }
+
+        SerializedString serialized() {
+            SerializedString s = serialized;
+            if (s == null) { //racing builders produce identical values
+                ArrayNode node = new ArrayNode(JsonNodeFactory.instance, Arrays.asList(msgs));
+                s = new SerializedString(new String(ZugUtils.writeBytes(node), StandardCharsets.UTF_8));
+                serialized = s;
+            }
+            return s;
+        }
+    }
+
+    /**
+     * A copy of a View that serializes as the View's cached serialization, unless it has since been modified.
+     * (The unchecked warning is inherited from ArrayNode's covariant deepCopy(), which HistoryNode leaves alone.)
+     */
+    @SuppressWarnings("unchecked")
+    private static final class HistoryNode extends ArrayNode {
+        private static final long serialVersionUID = 1L;
+        private final transient View source; //serialized copies are plain ArrayNodes
+
+        HistoryNode(View source) {
+            super(JsonNodeFactory.instance, new ArrayList<>(Arrays.asList(source.msgs)));
+            this.source = source;
+        }
+
+        private boolean isUnmodified() {
+            if (source == null || size() != source.msgs.length) return false;
+            for (int i = 0; i < source.msgs.length; i++) if (get(i) != source.msgs[i]) return false;
+            return true;
+        }
+
+        @Override
+        public void serialize(JsonGenerator g, SerializerProvider provider) throws IOException {
+            if (isUnmodified()) g.writeRawValue(source.serialized()); else super.serialize(g, provider);
+        }
+    }
+
+    /**
+     * Creates a MessageManager with the default capacity (see setDefaultCapacity()).
+     */
+    public MessageManager() {
+        this(defaultCapacity);
+    }
+
+    /**
+     * Creates a MessageManager.
+     * @param capacity the maximum number of messages kept
+     */
+    public MessageManager(int capacity) {
+        ring = new AtomicReference<>(new Ring(Math.max(1, capacity), 0));
+    }
+
+    /**
+     * Sets the capacity of subsequently created MessageManagers.
+     * @param capacity the maximum number of messages kept
+     */
+    public static void setDefaultCapacity(int capacity) { defaultCapacity = capacity; }
+
+    public static int getDefaultCapacity() { return defaultCapacity; }
+
+    public int getCapacity() { return ring.get().capacity(); }
+
+    /**
+     * Resizes the history, keeping the most recent messages that fit.
+     * @param capacity the maximum number of messages kept
+     */
+    public void setCapacity(int capacity) {
+        Ring prev = ring.get(), next = new Ring(Math.max(1, capacity), prev.base);
+        ring.set(next);
+        for (int i = 0; i < prev.capacity(); i++) { //messages appended meanwhile are republished by addMessage()
+            Slot slot = prev.slots.get(i);
+            if (slot != null) next.publish(slot);
+        }
+    }
+
+    /**
+     * Adds a message to the history, and then appends it to the HistoryStore (if any) from the calling thread.
+     * @param msgNode the message
+     */
     public void addMessage(final JsonNode msgNode) {
-        messages.add(msgNode);
-        if (messages.size() > maxMessages) messages.remove(0);
+        Slot slot = new Slot(nextSeq.getAndIncrement(), msgNode);
+        Ring r = ring.get();
+        r.publish(slot);
+        if (ring.get() != r) ring.get().publish(slot); //resized meanwhile
+        Sink s = sink;
+        if (s != null) s.store().append(s.channel(), msgNode);
+    }
+
+    /**
+     * Persists this history to a channel of a HistoryStore, replacing the current (in-memory) history with the channel's most recent messages.
+     * @param store the HistoryStore (or null to stop persisting)
+     * @param channel the channel name
+     */
+    public void setStore(HistoryStore store, String channel) {
+        sink = store != null ? new Sink(store, channel) : null;
+        if (store != null) {
+            List<HistoryStore.Entry> tail = store.tail(channel, getCapacity());
+            long base = nextSeq.getAndAdd(tail.size());
+            Ring loaded = new Ring(getCapacity(), base);
+            for (int i = 0; i < tail.size(); i++) loaded.publish(new Slot(base + i, tail.get(i).msg()));
+            ring.set(loaded);
+        }
+    }
+
+    /**
+     * Gets a range of stored messages (e.g., for scrollback beyond the in-memory history).
+     * @param fromSeq the first sequence number
+     * @param limit the maximum number of messages
+     * @return the messages (empty if there's no HistoryStore)
+     */
+    public List<HistoryStore.Entry> getRange(long fromSeq, int limit) {
+        Sink s = sink;
+        return s != null ? s.store().range(s.channel(), fromSeq, limit) : List.of();
+    }
+
+    public int size() { return getView().msgs.length; }
+
+    /**
+     * Gets an immutable view of the current history, which is only rebuilt after a new message (or resizing).
+     */
+    private View getView() {
+        Ring r = ring.get();
+        long end = nextSeq.get();
+        View v = view;
+        if (v == null || v.ring != r || v.end != end) {
+            v = r.view(end);
+            view = v;
+        }
+        return v;
     }
 
+    /**
+     * Copies the history (oldest first) into a new array.  Until modified, the array serializes as a cached copy of
+     * the history's serialization, so embedding it in outgoing messages (e.g., via toJSON2()) costs no more than a copy.
+     * @return a JSON array of messages
+     */
     public ArrayNode toJSONArray() {
-        ArrayNode historyNode = ZugUtils.newJSONArray();
-        messages.forEach(historyNode::add);
-        return historyNode;
+        return new HistoryNode(getView());
     }
 }
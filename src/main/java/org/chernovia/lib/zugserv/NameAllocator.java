@@ -0,0 +1,86 @@
+package org.chernovia.lib.zugserv;
+
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A NameAllocator indexes the (case-folded) names in use, so that a free name can be found without scanning every user.
+ * Names are disambiguated with the smallest free numeric suffix, found via an index of the suffixes in use per base name
+ * (e.g., "Guest" for "Guest12"), whose entries are dropped once none of their names remain in use.
+ */
+public class NameAllocator {
+    static final int MAX_INDEXED_SUFFIX = 0xFFFF; //larger suffixes are still checked, just not indexed
+    private final ConcurrentHashMap<String, Integer> inUse = new ConcurrentHashMap<>(); //folded name -> number of holders (e.g., from different sources)
+    private final ConcurrentHashMap<String, BitSet> suffixes = new ConcurrentHashMap<>(); //folded base -> suffixes in use (never modified once mapped)
+
+    void add(String name) {
+        String folded = fold(name);
+        if (inUse.merge(folded, 1, Integer::sum) == 1) indexSuffixes(folded, true);
+    }
+
+    void remove(String name) {
+        String folded = fold(name);
+        boolean[] freed = {false};
+        inUse.computeIfPresent(folded, (n, count) -> {
+            if (count > 1) return count - 1;
+            freed[0] = true; return null;
+        });
+        if (freed[0]) indexSuffixes(folded, false);
+    }
+
+    /**
+     * Updates the suffix index for every way of splitting a name into a base and a (canonical) numeric suffix.
+     */
+    private void indexSuffixes(String folded, boolean taken) {
+        int suffix = 0, scale = 1;
+        for (int i = folded.length() - 1; i > 0; i--) {
+            char c = folded.charAt(i);
+            if (c < '0' || c > '9') return;
+            suffix += (c - '0') * scale; scale *= 10;
+            if (suffix > MAX_INDEXED_SUFFIX) return;
+            if (c == '0') continue; //e.g., "01" is not a suffix
+            int n = suffix;
+            suffixes.compute(folded.substring(0, i), (base, bits) -> {
+                BitSet next = bits == null ? new BitSet() : (BitSet) bits.clone();
+                next.set(n, taken);
+                return next.isEmpty() ? null : next;
+            });
+        }
+    }
+
+    /**
+     * Indicates if a name (ignoring case) is in use.
+     * @param name the name
+     * @return true if in use
+     */
+    public boolean isTaken(String name) {
+        return inUse.containsKey(fold(name));
+    }
+
+    /**
+     * Finds a name not in use, i.e., the base name itself or else the base name with the smallest free numeric suffix.
+     * Note that the name is not reserved until a user with that name is added.
+     * @param base the base name
+     * @return a free name
+     */
+    public String allocate(String base) {
+        if (!isTaken(base)) return base;
+        BitSet taken = suffixes.get(fold(base));
+        int suffix = taken == null ? 1 : taken.nextClearBit(1);
+        while (isTaken(base + suffix)) suffix = taken == null ? suffix + 1 : taken.nextClearBit(suffix + 1);
+        return base + suffix;
+    }
+
+    public int size() { return inUse.size(); }
+
+    /**
+     * Gets the number of base names with indexed suffixes in use.
+     * @return the number of base names
+     */
+    public int getIndexedBases() { return suffixes.size(); }
+
+    private static String fold(String name) { //as per String.equalsIgnoreCase()
+        return name.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,95 @@
+package org.chernovia.lib.zugserv;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+
+/**
+ * A NamePool is a fixed list of name parts (e.g., chess openings or animals) loaded once from a bundled word list
+ * (see the "names" resource directory), from which random names are cheaply generated.
+ */
+public class NamePool {
+    public static final NamePool
+            OPENINGS = load("openings", NamePool::squash),
+            COLORS = load("colors", word -> capitalize(word.split(" ")[0])),
+            APPLIANCES = load("appliances", word -> word.split(" ")[0]),
+            ARTISTS = load("artists", NamePool::squash),
+            ANIMALS = load("animals", NamePool::squash);
+    public static final int MAX_TRIES = 8;
+    private final String[] words;
+
+    /**
+     * Creates a NamePool.
+     * @param words the (non-empty) list of words
+     */
+    public NamePool(String... words) {
+        if (words.length == 0) throw new IllegalArgumentException("Empty name pool");
+        this.words = words;
+    }
+
+    /**
+     * Loads a word list (one word or phrase per line) from the "names" resource directory.
+     * If the list cannot be read, the pool consists of the list name alone.
+     * @param list the name of the list
+     * @param transform a transformation applied once to each line (e.g., to remove whitespace)
+     * @return the NamePool
+     */
+    public static NamePool load(String list, UnaryOperator<String> transform) {
+        try (InputStream in = NamePool.class.getResourceAsStream("names/" + list + ".txt")) {
+            if (in == null) throw new IOException("not found");
+            String[] words = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).lines()
+                    .map(String::trim).filter(line -> !line.isEmpty()).map(transform).filter(word -> !word.isEmpty())
+                    .distinct().toArray(String[]::new);
+            if (words.length > 0) return new NamePool(words);
+        } catch (IOException e) {
+            ZugHandler.log(Level.WARNING, "Couldn't load name list: " + list + " (" + e.getMessage() + ")");
+        }
+        return new NamePool(capitalize(list));
+    }
+
+    public String next() {
+        return words[ThreadLocalRandom.current().nextInt(words.length)];
+    }
+
+    public int size() { return words.length; }
+
+    /**
+     * Generates a name from one random word of each pool, e.g., a color followed by an appliance.
+     * @param pools the NamePools
+     * @return the name
+     */
+    public static String generate(NamePool... pools) {
+        StringBuilder name = new StringBuilder();
+        for (NamePool pool : pools) name.append(pool.next());
+        return name.toString();
+    }
+
+    /**
+     * Generates a name not yet taken, trying up to MAX_TRIES random names before resorting to numeric suffixes.
+     * @param taken tests if a name is already taken
+     * @param pools the NamePools
+     * @return a free name
+     */
+    public static String generateUnique(Predicate<String> taken, NamePool... pools) {
+        String name = generate(pools);
+        for (int i = 1; i < MAX_TRIES && taken.test(name); i++) name = generate(pools);
+        String base = name;
+        for (int i = 2; taken.test(name); i++) name = base + i;
+        return name;
+    }
+
+    private static String squash(String word) { //e.g., "Alekhine's Defense" -> "AlekhinesDefense"
+        return word.codePoints().filter(Character::isLetterOrDigit)
+                .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append).toString();
+    }
+
+    private static String capitalize(String word) {
+        return word.isEmpty() ? word : word.substring(0, 1).toUpperCase() + word.substring(1);
+    }
+}
@@ -0,0 +1,65 @@
+package org.chernovia.lib.zugserv;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * An ObserverIndex maps each observing Connection to the areas it observes, so that handling a disconnection only visits
+ * those areas rather than every area.  Areas update their own entries as observers come and go (see ZugArea.addObserver()).
+ */
+public class ObserverIndex {
+    private final ConcurrentHashMap<Connection, Set<ZugArea>> observed = new ConcurrentHashMap<>();
+
+    void add(ZugArea area) {
+        area.observerIndex = this;
+        area.getObservers().forEach(conn -> observe(conn, area));
+    }
+
+    void remove(ZugArea area) {
+        if (area.observerIndex == this) area.observerIndex = null;
+        area.getObservers().forEach(conn -> unobserve(conn, area));
+    }
+
+    void observe(Connection conn, ZugArea area) {
+        observed.computeIfAbsent(conn, c -> ConcurrentHashMap.newKeySet()).add(area);
+    }
+
+    void unobserve(Connection conn, ZugArea area) {
+        observed.computeIfPresent(conn, (c, areas) -> areas.remove(area) && areas.isEmpty() ? null : areas);
+    }
+
+    /**
+     * Removes a Connection from the index.
+     * @param conn the Connection
+     * @return the areas it was observing
+     */
+    Set<ZugArea> removeAll(Connection conn) {
+        Set<ZugArea> areas = observed.remove(conn);
+        return areas == null ? Set.of() : areas;
+    }
+
+    /**
+     * Gets the areas observed by a Connection.
+     * @param conn the Connection
+     * @return a copy of the set of observed areas
+     */
+    public Set<ZugArea> getObserved(Connection conn) {
+        Set<ZugArea> areas = observed.get(conn);
+        return areas == null ? Set.of() : Set.copyOf(areas);
+    }
+
+    /**
+     * Performs an action on each indexed (Connection, observed area) pair.
+     * @param action the action
+     */
+    public void forEach(BiConsumer<Connection, ZugArea> action) {
+        observed.forEach((conn, areas) -> areas.forEach(area -> action.accept(conn, area)));
+    }
+
+    /**
+     * Gets the number of observing Connections.
+     * @return the number of Connections
+     */
+    public int size() { return observed.size(); }
+}
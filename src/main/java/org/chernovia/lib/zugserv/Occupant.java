@@ -58,7 +58,10 @@ abstract public class Occupant implements JSONifier {
      */
     public void setAway(boolean b) {
         away = b;
-        if (away && area != null) area.handleAway(this);
+        if (area != null) {
+            area.markChanged();
+            if (away) area.handleAway(this);
+        }
     }
 
     /**
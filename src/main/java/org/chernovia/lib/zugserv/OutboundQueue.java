@@ -0,0 +1,199 @@
+package org.chernovia.lib.zugserv;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An OutboundQueue buffers a Connection's outgoing messages, which are then written (in order) by a shared pool of writer threads,
+ * so that a slow client cannot stall whatever thread (area, phase, message handler, etc.) is sending to it.
+ * The pool is bounded (by default, one thread per available processor): each queue with pending messages occupies at most
+ * one writer at a time, and yields it after writing a batch of messages so that busy queues cannot starve the others.
+ * Writes go through ConnAdapter.writeAsync(), and a queue whose write is still in progress releases its writer until
+ * the write completes, so stalled clients don't tie up the pool.
+ */
+public class OutboundQueue {
+
+    /**
+     * What to do when a message is sent to a full queue.
+     * DROP_OLDEST drops the oldest queued message.
+     * DROP_BY_TYPE drops the oldest queued message of a droppable type (or else the new message, if droppable), and otherwise disconnects.
+     * DISCONNECT closes the Connection.
+     */
+    public enum OverflowPolicy { DROP_OLDEST, DROP_BY_TYPE, DISCONNECT }
+
+    private static final Logger logger = Logger.getLogger(OutboundQueue.class.getName());
+    private static final AtomicLong totalDropped = new AtomicLong(), totalOverflowDisconnects = new AtomicLong();
+    private static final int MAX_BATCH = 64;
+    private static final AtomicInteger writerCount = new AtomicInteger();
+    private static volatile ExecutorService writerPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+        Thread thread = new Thread(r, "ZugWriter-" + writerCount.getAndIncrement()); thread.setDaemon(true); return thread;
+    });
+
+    private final ConnAdapter conn;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Set<Enum<?>> droppableTypes;
+    private final ArrayDeque<EncodedMessage> queue = new ArrayDeque<>();
+    private boolean draining = false, closed = false;
+    private int maxDepth = 0;
+    private long dropped = 0;
+
+    /**
+     * Creates an OutboundQueue.
+     * @param conn the Connection to write to
+     * @param capacity the maximum number of queued messages
+     * @param policy the overflow policy
+     * @param droppableTypes message types that may be dropped under OverflowPolicy.DROP_BY_TYPE
+     */
+    public OutboundQueue(ConnAdapter conn, int capacity, OverflowPolicy policy, Set<Enum<?>> droppableTypes) {
+        this.conn = conn;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.droppableTypes = Set.copyOf(droppableTypes);
+    }
+
+    /**
+     * Sets the pool of writer threads shared by all OutboundQueues (on Java 21+ this could be a virtual thread executor).
+     * A larger pool may suit custom transports whose writeAsync() blocks.
+     * @param pool the writer pool
+     */
+    public static void setWriterPool(ExecutorService pool) { writerPool = pool; }
+
+    public static ExecutorService getWriterPool() { return writerPool; }
+
+    /**
+     * Gets the number of messages dropped by all queues.
+     * @return the total number of dropped messages
+     */
+    public static long getTotalDropped() { return totalDropped.get(); }
+
+    /**
+     * Gets the number of Connections closed due to queue overflow.
+     * @return the total number of overflow disconnections
+     */
+    public static long getTotalOverflowDisconnects() { return totalOverflowDisconnects.get(); }
+
+    /**
+     * Queues a message for writing.
+     * @param msg the encoded message
+     */
+    public void add(EncodedMessage msg) {
+        boolean disconnect = false, schedule = false;
+        synchronized (queue) {
+            if (closed) return;
+            if (queue.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST -> { queue.poll(); countDrop(); }
+                    case DROP_BY_TYPE -> {
+                        if (removeOldestDroppable()) countDrop();
+                        else if (droppableTypes.contains(msg.getType())) { countDrop(); return; }
+                        else disconnect = true;
+                    }
+                    case DISCONNECT -> disconnect = true;
+                }
+            }
+            if (disconnect) {
+                closed = true; queue.clear();
+            }
+            else {
+                queue.add(msg);
+                maxDepth = Math.max(maxDepth, queue.size());
+                if (!draining) { draining = true; schedule = true; }
+            }
+        }
+        if (disconnect) {
+            totalOverflowDisconnects.incrementAndGet();
+            logger.log(Level.WARNING, "Outbound queue overflow at address: " + conn.getAddress());
+            conn.close("Outbound queue overflow");
+        }
+        else if (schedule) scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        try { writerPool.execute(this::drain); }
+        catch (RejectedExecutionException e) { drain(); }
+    }
+
+    private boolean removeOldestDroppable() {
+        for (Iterator<EncodedMessage> i = queue.iterator(); i.hasNext();) {
+            if (droppableTypes.contains(i.next().getType())) { i.remove(); return true; }
+        }
+        return false;
+    }
+
+    private void countDrop() {
+        dropped++; totalDropped.incrementAndGet();
+    }
+
+    /**
+     * Writes up to a batch of queued messages, and then (if any remain) reschedules itself behind the other queues' drains.
+     * If a write doesn't complete at once, draining resumes (on the pool) when it does.
+     */
+    private void drain() {
+        for (int n = 0; n < MAX_BATCH; n++) {
+            EncodedMessage msg;
+            synchronized (queue) {
+                msg = queue.poll();
+                if (msg == null) { draining = false; return; }
+            }
+            CompletableFuture<Void> written;
+            try { written = conn.writeAsync(msg); }
+            catch (Exception e) { writeFailed(e); continue; }
+            if (!written.isDone()) {
+                written.whenComplete((v, e) -> {
+                    if (e != null) writeFailed(e);
+                    scheduleDrain();
+                });
+                return; //still draining
+            }
+            written.exceptionally(e -> { writeFailed(e); return null; });
+        }
+        scheduleDrain(); //still draining
+    }
+
+    private void writeFailed(Throwable e) {
+        logger.log(Level.WARNING, "Write error (" + e.getMessage() + ") at address: " + conn.getAddress());
+    }
+
+    /**
+     * Discards all queued messages and ignores any further ones (typically upon disconnection).
+     */
+    public void close() {
+        synchronized (queue) { closed = true; queue.clear(); }
+    }
+
+    /**
+     * Gets the number of currently queued messages.
+     * @return the queue depth
+     */
+    public int getDepth() {
+        synchronized (queue) { return queue.size(); }
+    }
+
+    /**
+     * Gets the greatest number of messages ever queued at once.
+     * @return the maximum queue depth
+     */
+    public int getMaxDepth() {
+        synchronized (queue) { return maxDepth; }
+    }
+
+    /**
+     * Gets the number of messages this queue has dropped.
+     * @return the number of dropped messages
+     */
+    public long getDropped() {
+        synchronized (queue) { return dropped; }
+    }
+
+    public int getCapacity() { return capacity; }
+
+    public OverflowPolicy getPolicy() { return policy; }
+}
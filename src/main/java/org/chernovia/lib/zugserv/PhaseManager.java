@@ -4,11 +4,25 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.chernovia.lib.zugserv.enums.ZugScope;
 import org.chernovia.lib.zugserv.enums.ZugServMsgType;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 public class PhaseManager implements JSONifier {
 
+    /**
+     * Phase timers for all areas are kept by a small, shared set of single-threaded schedulers ("shards"), which only
+     * hand each expired timer's callback to its PhaseManager's SerialExecutor.  Callbacks (e.g., onTimeout actions and
+     * whatever continues from a phase's future) thus run serially and in order for each area, but never on a shard thread,
+     * so a slow or blocking callback cannot delay other areas' timers.
+     */
+    private static final ScheduledExecutorService[] shards = newShards(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final AtomicInteger callbackThreadCount = new AtomicInteger();
+    private static final ExecutorService callbackPool = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ZugPhaseCallback-" + callbackThreadCount.getAndIncrement()); thread.setDaemon(true); return thread;
+    });
+
     public static class PhaseStep {
         public final Enum<?> phase;
         public final int durationMillis;
@@ -69,10 +83,93 @@ public class PhaseManager implements JSONifier {
     private boolean isPaused = false;
     private long remainingMillis = 0;
     private long pauseTimestamp = 0;
-    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ScheduledExecutorService scheduler;
+    private final Executor callbacks;
+    private final Set<ScheduledFuture<?>> timers = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutdown = false;
 
     public PhaseManager(ZugArea area) {
         this.area = area;
+        scheduler = shards[Math.floorMod(System.identityHashCode(this), shards.length)];
+        Executor virtualExecutor = area.config.virtualThread ? ZugArea.getVirtualExecutor() : null;
+        callbacks = new SerialExecutor(virtualExecutor != null ? virtualExecutor : callbackPool);
+    }
+
+    private static ScheduledExecutorService[] newShards(int n) {
+        ScheduledExecutorService[] executors = new ScheduledExecutorService[n];
+        for (int i = 0; i < n; i++) {
+            String name = "ZugPhase-" + i;
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, name); thread.setDaemon(true); return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true); //so cancelled (e.g., interrupted) phases don't linger in the queue
+            executors[i] = executor;
+        }
+        return executors;
+    }
+
+    /**
+     * Schedules one of this manager's timers on its shard, to run on its SerialExecutor.
+     * @param task the task to run
+     * @param delayMillis the delay (in millis)
+     * @return the scheduled timer
+     * @throws RejectedExecutionException if the phases have been shut down
+     */
+    private ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        if (shutdown) throw new RejectedExecutionException("Phases shut down");
+        timers.removeIf(Future::isDone); //an area only ever has a handful of timers
+        PhaseTimer timer = new PhaseTimer(task);
+        timer.future = scheduler.schedule(() -> callbacks.execute(timer), delayMillis, TimeUnit.MILLISECONDS);
+        timers.add(timer);
+        if (shutdown) timer.cancel(false); //raced with shutdownPhases()
+        return timer;
+    }
+
+    /**
+     * A timer whose cancellation also prevents its task from running if it has already expired but not yet been run
+     * (i.e., is still queued on the SerialExecutor).
+     */
+    private static class PhaseTimer implements ScheduledFuture<Object>, Runnable {
+        private final Runnable task;
+        private volatile ScheduledFuture<?> future;
+        private volatile boolean cancelled = false, ran = false;
+
+        PhaseTimer(Runnable task) { this.task = task; }
+
+        @Override
+        public void run() {
+            if (cancelled) return;
+            ran = true;
+            task.run();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (ran || cancelled) return false;
+            cancelled = true;
+            future.cancel(false);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() { return cancelled; }
+
+        @Override
+        public boolean isDone() { return cancelled || ran; }
+
+        @Override
+        public Object get() throws InterruptedException, ExecutionException { return future.get(); }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return future.get(timeout, unit);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) { return future.getDelay(unit); }
+
+        @Override
+        public int compareTo(Delayed o) { return future.compareTo(o); }
     }
 
     /**
@@ -82,7 +179,7 @@ public class PhaseManager implements JSONifier {
      */
     public void setPhase(Enum<?> p, boolean quietly) {
         area.action(Timeoutable.ActionType.phase);
-        phase = p;
+        phase = p; area.markChanged();
         if (!quietly) area.spam(ZugServMsgType.phase, toJSON()); //getListener().areaUpdated(this);
     }
 
@@ -110,7 +207,7 @@ public class PhaseManager implements JSONifier {
         CompletableFuture<Void> future = new CompletableFuture<>();
         try {
             action.run();
-            scheduler.schedule(() -> future.complete(null), delayMillis, TimeUnit.MILLISECONDS);
+            schedule(() -> future.complete(null), delayMillis);
         } catch (Exception e) {
             future.completeExceptionally(e);
         }
@@ -121,10 +218,10 @@ public class PhaseManager implements JSONifier {
         cancelPhase();  // Cancel previous phase if any
         currentRunnableFuture = new CompletableFuture<>();
         onTimeoutAction = onTimeout;  // ← stored here
-        currentTimeout = scheduler.schedule(() -> {
+        currentTimeout = schedule(() -> {
             onTimeout.run();               // ← invoked later
             currentRunnableFuture.complete(null);
-        }, millis, TimeUnit.MILLISECONDS);
+        }, millis);
         return currentRunnableFuture;
     }
 
@@ -140,14 +237,14 @@ public class PhaseManager implements JSONifier {
         if (!isPaused || remainingMillis <= 0) return;
         isPaused = false;
         phaseStamp = System.currentTimeMillis(); // reset phaseStamp to now
-        currentTimeout = scheduler.schedule(() -> {
+        currentTimeout = schedule(() -> {
             if (currentPhaseFuture != null && !currentPhaseFuture.isDone()) {
                 currentPhaseFuture.complete(true);
             } else if (currentRunnableFuture != null && !currentRunnableFuture.isDone()) {
                 if (onTimeoutAction != null) onTimeoutAction.run();
                 currentRunnableFuture.complete(null);
             }
-        }, remainingMillis, TimeUnit.MILLISECONDS);
+        }, remainingMillis);
     }
 
     public boolean isPaused() {
@@ -184,9 +281,9 @@ public class PhaseManager implements JSONifier {
         phaseTime = millis;
         if (data != null) setPhase(p,data); else setPhase(p, quietly);
         currentPhaseFuture = new CompletableFuture<>();
-        currentTimeout = scheduler.schedule(() -> {
+        currentTimeout = schedule(() -> {
             currentPhaseFuture.complete(true);
-        }, phaseTime, TimeUnit.MILLISECONDS);
+        }, phaseTime);
         return currentPhaseFuture;
     }
 
@@ -205,8 +302,13 @@ public class PhaseManager implements JSONifier {
         }
     }
 
+    /**
+     * Cancels all of this manager's pending timers (the shared scheduler threads are unaffected).
+     * Any subsequent attempt to schedule a phase or delay fails with a RejectedExecutionException.
+     */
     public void shutdownPhases() {
-        scheduler.shutdownNow();
+        shutdown = true;
+        timers.removeIf(timer -> { timer.cancel(false); return true; });
     }
 
     public CompletableFuture<Void> awaitSpam(String msg, int millis) {
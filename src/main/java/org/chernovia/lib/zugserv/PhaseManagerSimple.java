@@ -5,6 +5,9 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.util.concurrent.CompletableFuture;
 
 public class PhaseManagerSimple extends PhaseManager {
+    private final Object sleepLock = new Object();
+    private boolean sleeping = false; //rather than checking for TIMED_WAITING, which a sleeping virtual thread may not report
+
     public PhaseManagerSimple(ZugArea area) {
         super(area);
     }
@@ -23,7 +26,12 @@ public class PhaseManagerSimple extends PhaseManager {
         if (data != null) setPhase(p,data); else setPhase(p, quietly);
         boolean timeout = true;
         if (seconds > 0) {
+            synchronized (sleepLock) { sleeping = true; }
             try { Thread.sleep(phaseTime); } catch (InterruptedException e) { timeout = false; }
+            synchronized (sleepLock) {
+                sleeping = false;
+                if (Thread.interrupted()) timeout = false; //interrupted just as the sleep ended
+            }
         }
         future.complete(timeout);
         return future;
@@ -32,7 +40,9 @@ public class PhaseManagerSimple extends PhaseManager {
     @Override
     public void interruptPhase() {
         Thread thread = area.getAreaThread();
-        if (thread != null && thread.getState() == Thread.State.TIMED_WAITING) thread.interrupt();
+        synchronized (sleepLock) {
+            if (thread != null && sleeping) thread.interrupt();
+        }
     }
 
     @Override
@@ -0,0 +1,286 @@
+package org.chernovia.lib.zugserv;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * A SegmentLogStore keeps each channel's history as an append-only log of memory-mapped segment files (in a directory per channel).
+ * Records are a 4 byte length and a 4 byte CRC32C checksum followed by a UTF-8 JSON message.  Since the pages of a mapped
+ * file may reach the disk in any order, reopening a segment keeps only the records preceding the first whose length or
+ * checksum is invalid (e.g., torn by a crash), and clears the rest of the last segment before any further appends.
+ * Appends are plain memory writes; dirty segments are forced to disk periodically (rather than once per message) by a
+ * flusher thread, without blocking appends meanwhile, and the oldest segments beyond a channel's limit are deleted.
+ */
+public class SegmentLogStore implements HistoryStore {
+    private static final Logger logger = Logger.getLogger(SegmentLogStore.class.getName());
+    private static final String SUFFIX = ".seg";
+    private static final int HEADER = 8; //length and checksum
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20, DEFAULT_MAX_SEGMENTS = 16;
+    public static final long DEFAULT_FLUSH_MILLIS = 1000;
+    private final Path dir;
+    private final int segmentSize, maxSegments;
+    private final ConcurrentHashMap<String, Log> logs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ZugHistoryFlusher"); thread.setDaemon(true); return thread;
+    });
+
+    /**
+     * Creates a SegmentLogStore with the default segment size, segment limit, and flush interval.
+     * @param dir the root directory
+     * @throws IOException if the directory cannot be created
+     */
+    public SegmentLogStore(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS, DEFAULT_FLUSH_MILLIS);
+    }
+
+    /**
+     * Creates a SegmentLogStore.
+     * @param dir the root directory
+     * @param segmentSize the size (in bytes) of each segment file
+     * @param maxSegments the maximum number of segments kept per channel
+     * @param flushMillis the interval (in millis) at which appended messages are forced to disk
+     * @throws IOException if the directory cannot be created
+     */
+    public SegmentLogStore(Path dir, int segmentSize, int maxSegments, long flushMillis) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, maxSegments);
+        flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long append(String channel, JsonNode msg) {
+        return getLog(channel).append(ZugUtils.writeBytes(msg));
+    }
+
+    @Override
+    public List<Entry> tail(String channel, int n) {
+        return getLog(channel).tail(n);
+    }
+
+    @Override
+    public List<Entry> range(String channel, long fromSeq, int limit) {
+        return getLog(channel).range(fromSeq, limit);
+    }
+
+    @Override
+    public void flush() {
+        logs.values().forEach(Log::force);
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        logs.values().forEach(Log::close);
+        logs.clear();
+    }
+
+    private Log getLog(String channel) {
+        return logs.computeIfAbsent(channel, c -> {
+            try {
+                return new Log(dir.resolve("c_" + URLEncoder.encode(c, StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static class Segment {
+        final Path path;
+        final long baseSeq;
+        final FileChannel file;
+        final MappedByteBuffer buf;
+        int[] offsets = new int[64];
+        int count = 0, end = 0;
+        boolean dirty = false;
+
+        Segment(Path path, long baseSeq, int size) throws IOException {
+            this.path = path;
+            this.baseSeq = baseSeq;
+            file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buf = file.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, file.size()));
+            while (isValid(end)) {
+                addOffset(end);
+                end += HEADER + buf.getInt(end);
+            }
+        }
+
+        private boolean isValid(int pos) {
+            if (pos + HEADER > buf.capacity()) return false;
+            int len = buf.getInt(pos);
+            return len > 0 && len <= buf.capacity() - pos - HEADER && buf.getInt(pos + 4) == checksum(buf, pos + HEADER, len);
+        }
+
+        /**
+         * Zeroes everything after the last valid record, so that stale or torn bytes can't be mistaken for later appends.
+         */
+        void clearTail() {
+            int pos = end;
+            while (pos < buf.capacity() && buf.get(pos) == 0) pos++;
+            if (pos == buf.capacity()) return;
+            for (pos = end; pos < buf.capacity(); pos++) buf.put(pos, (byte) 0);
+            dirty = true;
+        }
+
+        void addOffset(int pos) {
+            if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+            offsets[count++] = pos;
+        }
+
+        boolean fits(int len) { return end + HEADER + len <= buf.capacity(); }
+
+        void write(byte[] bytes) {
+            buf.put(end + HEADER, bytes);
+            buf.putInt(end + 4, checksum(buf, end + HEADER, bytes.length));
+            buf.putInt(end, bytes.length);
+            addOffset(end);
+            end += HEADER + bytes.length;
+            dirty = true;
+        }
+
+        JsonNode read(int i) throws IOException {
+            int pos = offsets[i];
+            byte[] bytes = new byte[buf.getInt(pos)];
+            buf.get(pos + HEADER, bytes);
+            return ZugUtils.readBytes(bytes);
+        }
+
+        private static int checksum(MappedByteBuffer buf, int pos, int len) {
+            CRC32C crc = new CRC32C();
+            crc.update(buf.slice(pos, len));
+            return (int) crc.getValue();
+        }
+
+        /**
+         * Clears the dirty flag (under the Log's lock), so that a subsequent force() covers every write made so far.
+         * @return true if the segment was dirty
+         */
+        boolean takeDirty() {
+            boolean wasDirty = dirty; dirty = false; return wasDirty;
+        }
+
+        void close() {
+            try { file.close(); } catch (IOException e) { logger.log(Level.WARNING, "Error closing segment: " + path); }
+        }
+    }
+
+    private final class Log {
+        private final Path dir;
+        private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+        private long nextSeq = 0;
+
+        Log(Path dir) throws IOException {
+            this.dir = Files.createDirectories(dir);
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(dir)) {
+                files = stream.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+            }
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                Segment segment = new Segment(path, Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), 0);
+                segments.add(segment);
+                nextSeq = segment.baseSeq + segment.count;
+            }
+            Segment last = segments.peekLast();
+            if (last != null) last.clearTail();
+        }
+
+        synchronized long append(byte[] bytes) {
+            Segment segment = segments.peekLast();
+            try {
+                if (segment == null || !segment.fits(bytes.length)) {
+                    boolean rolled = segment != null;
+                    segment = roll(bytes.length);
+                    if (rolled) forceLater();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            segment.write(bytes);
+            return nextSeq++;
+        }
+
+        private Segment roll(int len) throws IOException {
+            Segment segment = new Segment(dir.resolve(String.format("%020d", nextSeq) + SUFFIX), nextSeq, Math.max(segmentSize, len + HEADER));
+            segments.add(segment);
+            while (segments.size() > maxSegments) {
+                Segment oldest = segments.poll();
+                oldest.close();
+                try { Files.delete(oldest.path); }
+                catch (IOException e) { logger.log(Level.WARNING, "Error deleting segment: " + oldest.path); }
+            }
+            return segment;
+        }
+
+        synchronized List<Entry> tail(int n) {
+            return range(nextSeq - n, n);
+        }
+
+        synchronized List<Entry> range(long fromSeq, int limit) {
+            List<Entry> entries = new ArrayList<>();
+            for (Segment segment : segments) {
+                if (entries.size() >= limit) break;
+                if (fromSeq >= segment.baseSeq + segment.count) continue;
+                for (int i = (int) Math.max(0, fromSeq - segment.baseSeq); i < segment.count && entries.size() < limit; i++) {
+                    try {
+                        entries.add(new Entry(segment.baseSeq + i, segment.read(i)));
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Unreadable record " + (segment.baseSeq + i) + " in " + segment.path);
+                    }
+                }
+            }
+            return entries;
+        }
+
+        /**
+         * Has the flusher force the (just filled) previous segment now, rather than at its next scheduled flush.
+         */
+        private void forceLater() {
+            try { flusher.execute(this::force); }
+            catch (RejectedExecutionException ignored) {} //closing, which forces everything anyway
+        }
+
+        /**
+         * Forces the dirty segments to disk, holding the lock only to collect them, so appends continue meanwhile.
+         */
+        void force() {
+            List<Segment> dirty = new ArrayList<>();
+            synchronized (this) {
+                for (Segment segment : segments) if (segment.takeDirty()) dirty.add(segment);
+            }
+            for (Segment segment : dirty) {
+                try { segment.buf.force(); }
+                catch (UncheckedIOException e) {
+                    logger.log(Level.WARNING, "Error forcing segment: " + segment.path);
+                    synchronized (this) { segment.dirty = true; } //try again at the next flush
+                }
+            }
+        }
+
+        synchronized void close() {
+            for (Segment segment : segments) {
+                if (segment.takeDirty()) segment.buf.force();
+                segment.close();
+            }
+            segments.clear();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.chernovia.lib.zugserv;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+/**
+ * A SerialExecutor runs its tasks one at a time, in the order submitted, on a (typically shared) backing Executor,
+ * so that, e.g., an area's phase callbacks never overlap without the area needing a thread of its own.
+ * Tasks may also be run on the calling thread when the executor is idle (see run()).
+ */
+public class SerialExecutor implements Executor {
+    private final Executor backing;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean active = false;
+    private Thread runner = null; //the thread currently running tasks, if any
+
+    /**
+     * Creates a SerialExecutor.
+     * @param backing the Executor on which tasks are run
+     */
+    public SerialExecutor(Executor backing) {
+        this.backing = backing;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (tasks) {
+            tasks.add(task);
+            if (active) return;
+            active = true;
+        }
+        try { backing.execute(this::drain); }
+        catch (RejectedExecutionException e) {
+            synchronized (tasks) { tasks.clear(); active = false; }
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a task on the calling thread if the executor is idle (along with any tasks submitted meanwhile), or if called
+     * from one of its own tasks, and otherwise queues it.  Uncontended tasks thus run serially without a thread handoff.
+     * @param task the task
+     */
+    public void run(Runnable task) {
+        boolean nested;
+        synchronized (tasks) {
+            nested = runner == Thread.currentThread();
+            if (!nested) {
+                tasks.add(task);
+                if (active) return;
+                active = true;
+            }
+        }
+        if (nested) task.run(); else drain();
+    }
+
+    private void drain() {
+        synchronized (tasks) { runner = Thread.currentThread(); }
+        while (true) {
+            Runnable task;
+            synchronized (tasks) {
+                task = tasks.poll();
+                if (task == null) { active = false; runner = null; return; }
+            }
+            try { task.run(); }
+            catch (Exception e) { ZugHandler.log(Level.WARNING, "Task error: " + e.getMessage()); }
+        }
+    }
+}
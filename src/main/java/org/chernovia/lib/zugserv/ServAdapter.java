@@ -1,9 +1,30 @@
 package org.chernovia.lib.zugserv;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import org.chernovia.lib.zugserv.enums.ZugServMsgType;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The ServAdapter Class performs some generic implementations of the ZugServ interface.
+ * Admission limits are off by default; to enable them, call setMaxConnections(), setMaxConnectionsPerAddress(),
+ * and/or setAcceptRate() (e.g., with 1000, 16, and 50 per second with bursts of 100) before starting the server.
+ */
 abstract public class ServAdapter implements ZugServ {
-    private int maxConnections = 127;
+    private int maxConnections = 0;
+    private int maxConnectionsPerAddress = 0;
+    private volatile TokenBucket acceptLimiter = null;
+    private final AtomicLongArray rejections = new AtomicLongArray(ConnectionRegistry.Admission.values().length);
+    private int outboundQueueSize = 1024;
+    private OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.DISCONNECT;
+    private Set<Enum<?>> droppableTypes = Set.of(ZugServMsgType.ping, ZugServMsgType.updateServ,
+            ZugServMsgType.updateAreaList, ZugServMsgType.updateOccupants);
     protected final static boolean STACK_TRACE = true;
     private final ConnListener connListener;
+    private final ConnectionRegistry connections = new ConnectionRegistry();
     boolean running = false; boolean paused = false;
 
     public ServAdapter(final ConnListener connListener) {
@@ -31,10 +52,139 @@ abstract public class ServAdapter implements ZugServ {
     @Override
     public int getMaxConnections() { return maxConnections; }
 
+    /**
+     * Sets the maximum number of simultaneous Connections (by default, there is no maximum).
+     * @param c number of connections (zero or less for no maximum)
+     */
     @Override
     public void setMaxConnections(int c) {
         maxConnections = c;
     }
 
+    public int getMaxConnectionsPerAddress() { return maxConnectionsPerAddress; }
+
+    /**
+     * Sets the maximum number of simultaneous Connections from a single (IP) address (by default, there is no maximum).
+     * @param c number of connections (zero or less for no maximum)
+     */
+    public void setMaxConnectionsPerAddress(int c) { maxConnectionsPerAddress = c; }
+
+    /**
+     * Limits the rate at which new Connections are accepted (by default, there is no limit).
+     * @param perSecond the sustained rate of new Connections per second (zero or less for no limit)
+     * @param burst the maximum number of new Connections accepted at once
+     */
+    public void setAcceptRate(double perSecond, int burst) {
+        acceptLimiter = perSecond > 0 ? new TokenBucket(perSecond, burst) : null;
+    }
+
+    /**
+     * Admits (i.e., registers) a new Connection, subject to the accept rate, maxConnections, and maxConnectionsPerAddress.
+     * Rejections are counted per reason (see getRejections()), and the caller should close the rejected transport session
+     * (for WebSockets, preferably with code 1013, "try again later").
+     * @param session the transport session (e.g., a WebSocket)
+     * @param conn the new Connection
+     * @param remoteAddress the session's remote address
+     * @return the Admission result
+     */
+    protected ConnectionRegistry.Admission admit(Object session, Connection conn, SocketAddress remoteAddress) {
+        TokenBucket limiter = acceptLimiter;
+        ConnectionRegistry.Admission admission = limiter != null && !limiter.tryAcquire() ?
+                ConnectionRegistry.Admission.RATE_LIMITED :
+                connections.register(session, conn, hostOf(remoteAddress), maxConnections, maxConnectionsPerAddress);
+        if (admission != ConnectionRegistry.Admission.ADMITTED) rejections.incrementAndGet(admission.ordinal());
+        return admission;
+    }
+
+    /**
+     * Gets the number of Connections rejected for a given reason.
+     * @param reason the reason
+     * @return number of rejections
+     */
+    public long getRejections(ConnectionRegistry.Admission reason) { return rejections.get(reason.ordinal()); }
+
+    /**
+     * Gets the total number of rejected Connections.
+     * @return number of rejections
+     */
+    public long getRejections() {
+        long total = 0;
+        for (int i = 0; i < rejections.length(); i++) total += rejections.get(i);
+        return total;
+    }
+
+    /**
+     * Gets the host (IP) part of a remote address.
+     * @param address the remote address
+     * @return the host address, or null if unknown
+     */
+    protected static String hostOf(SocketAddress address) {
+        if (address instanceof InetSocketAddress inet) {
+            return inet.getAddress() != null ? inet.getAddress().getHostAddress() : inet.getHostString();
+        }
+        return address != null ? address.toString() : null;
+    }
+
+    /**
+     * Configures the OutboundQueue given to each new Connection.
+     * @param size maximum queued messages per Connection (zero or less to write synchronously, i.e., without queuing)
+     * @param policy what to do upon overflow
+     * @param droppable message types that may be dropped under OutboundQueue.OverflowPolicy.DROP_BY_TYPE
+     */
+    public void setOutboundQueue(int size, OutboundQueue.OverflowPolicy policy, Enum<?>... droppable) {
+        outboundQueueSize = size;
+        overflowPolicy = policy;
+        if (droppable.length > 0) droppableTypes = Set.of(droppable);
+    }
+
+    public int getOutboundQueueSize() { return outboundQueueSize; }
+
+    public OutboundQueue.OverflowPolicy getOverflowPolicy() { return overflowPolicy; }
+
+    /**
+     * Gives a newly created Connection its OutboundQueue (as per setOutboundQueue()).
+     * @param conn the new Connection
+     */
+    protected void initOutboundQueue(ConnAdapter conn) {
+        if (outboundQueueSize > 0) conn.setOutboundQueue(new OutboundQueue(conn, outboundQueueSize, overflowPolicy, droppableTypes));
+    }
+
+    /**
+     * Gets the registry of this server's Connections.
+     * @return the ConnectionRegistry
+     */
+    public ConnectionRegistry getConnectionRegistry() { return connections; }
+
+    /**
+     * Gets the number of current Connections.
+     * @param active if true, counts only active Connections
+     * @return the number of Connections
+     */
+    public int getConnectionCount(boolean active) { return connections.count(active); }
+
+    @Override
+    public List<Connection> getAllConnections(boolean active) {
+        return connections.list(active);
+    }
+
+    @Override
+    public void broadcast(Enum<?> type, String msg, boolean active) {
+        EncodedMessage encodedMsg = EncodedMessage.encode(type,msg);
+        connections.forEach(active, conn -> conn.sendEncoded(encodedMsg));
+    }
+
+    @Override
+    public void broadcast(Enum<?> type, JsonNode msg, boolean active) {
+        EncodedMessage encodedMsg = EncodedMessage.encode(type,msg);
+        connections.forEach(active, conn -> conn.sendEncoded(encodedMsg));
+    }
+
+    /**
+     * Discards any messages still queued for a closed Connection.
+     * @param conn the closed Connection
+     */
+    protected void closeOutboundQueue(Connection conn) {
+        if (conn instanceof ConnAdapter adapter) adapter.getOutboundQueue().ifPresent(OutboundQueue::close);
+    }
 
 }
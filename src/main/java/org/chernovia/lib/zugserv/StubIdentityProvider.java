@@ -0,0 +1,44 @@
+package org.chernovia.lib.zugserv;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A StubIdentityProvider verifies tokens against a local table (with an optional simulated latency),
+ * for testing logins without contacting any actual authentication service (see ZugHandler.setIdentityProvider()).
+ */
+public class StubIdentityProvider implements IdentityProvider {
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+    private volatile long latencyMillis;
+
+    public StubIdentityProvider() { this(0); }
+
+    /**
+     * Creates a StubIdentityProvider.
+     * @param latencyMillis how long (in millis) each verification takes
+     */
+    public StubIdentityProvider(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Adds a valid token.
+     * @param token the token
+     * @param name the name of the user it identifies
+     * @return this provider
+     */
+    public StubIdentityProvider addToken(String token, String name) {
+        names.put(token, name); return this;
+    }
+
+    public void removeToken(String token) { names.remove(token); }
+
+    public void setLatency(long millis) { latencyMillis = millis; }
+
+    @Override
+    public Optional<String> verify(String token) throws InterruptedException {
+        if (latencyMillis > 0) Thread.sleep(latencyMillis);
+        return Optional.ofNullable(names.get(token));
+    }
+}
@@ -0,0 +1,83 @@
+package org.chernovia.lib.zugserv;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * A TimeoutWheel tracks the idle deadlines of a set of Timeoutables (in one second slots), so that finding those that have
+ * timed out only visits entries that are actually due rather than scanning every entry.
+ * Entries are filed lazily: Timeoutable.action() doesn't touch the wheel, but an entry found to be due that has since seen
+ * an action is simply refiled under its new deadline.
+ * @param <T> the type of Timeoutable
+ */
+public class TimeoutWheel<T extends Timeoutable> {
+    private final TreeMap<Long, Set<T>> slots = new TreeMap<>();
+    private final Map<Timeoutable, Long> deadlines = new IdentityHashMap<>();
+
+    /**
+     * Adds (or refiles) an entry.
+     * @param t the Timeoutable
+     */
+    public synchronized void add(T t) {
+        unfile(t);
+        file(t);
+        t.wheel = this;
+    }
+
+    /**
+     * Removes an entry.
+     * @param t the Timeoutable
+     * @return true if the entry was present
+     */
+    public synchronized boolean remove(T t) {
+        if (!unfile(t)) return false;
+        if (t.wheel == this) t.wheel = null;
+        return true;
+    }
+
+    /**
+     * Refiles an entry whose idle timeout has changed (see Timeoutable.setIdleTimeout()).
+     * @param t the Timeoutable
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void refile(Timeoutable t) {
+        if (unfile(t)) file((T) t);
+    }
+
+    /**
+     * Removes and returns all timed out entries.
+     * @return a list of the timed out entries (in order of their deadlines)
+     */
+    public synchronized List<T> pollTimedOut() {
+        List<T> timedOut = new ArrayList<>();
+        long now = Instant.now().getEpochSecond();
+        for (Map.Entry<Long, Set<T>> slot; (slot = slots.firstEntry()) != null && slot.getKey() < now;) {
+            slots.pollFirstEntry();
+            for (T t : slot.getValue()) {
+                deadlines.remove(t);
+                if (t.timedOut()) {
+                    if (t.wheel == this) t.wheel = null;
+                    timedOut.add(t);
+                }
+                else file(t);
+            }
+        }
+        return timedOut;
+    }
+
+    public synchronized int size() { return deadlines.size(); }
+
+    private void file(T t) {
+        long deadline = t.getDeadline();
+        deadlines.put(t, deadline);
+        slots.computeIfAbsent(deadline, d -> Collections.newSetFromMap(new IdentityHashMap<>())).add(t);
+    }
+
+    private boolean unfile(Timeoutable t) {
+        Long deadline = deadlines.remove(t);
+        if (deadline == null) return false;
+        Set<T> slot = slots.get(deadline);
+        if (slot != null && slot.remove(t) && slot.isEmpty()) slots.remove(deadline);
+        return true;
+    }
+}
@@ -8,13 +8,25 @@ import java.time.Instant;
  */
 public abstract class Timeoutable { //TODO: make interface?
     public enum ActionType {creation,phase,join,part,start,occupant,obs,nudge,other,user}
-    private int idleTimeout = Integer.MAX_VALUE;
-    private long lastActionTimestamp = Instant.now().getEpochSecond();
+    private volatile int idleTimeout = Integer.MAX_VALUE;
+    private volatile long lastActionTimestamp = Instant.now().getEpochSecond();
+    volatile TimeoutWheel<?> wheel; //the TimeoutWheel (if any) tracking this object
     final public int getIdleTimeout() { return idleTimeout; }
-    final public void setIdleTimeout(int t) { idleTimeout = t; }
+    final public void setIdleTimeout(int t) {
+        idleTimeout = t;
+        TimeoutWheel<?> w = wheel;
+        if (w != null) w.refile(this);
+    }
     final public long getLastAction() { return lastActionTimestamp; }
     public void action(Enum<?> type) { lastActionTimestamp = Instant.now().getEpochSecond(); }
+
+    /**
+     * Gets the time (in epoch seconds) after which this object times out, barring further action.
+     * @return the idle deadline
+     */
+    final public long getDeadline() { return lastActionTimestamp + idleTimeout; }
+
     public boolean timedOut() {
-        return Instant.now().getEpochSecond() > (lastActionTimestamp + idleTimeout);
+        return Instant.now().getEpochSecond() > getDeadline();
     }
 }
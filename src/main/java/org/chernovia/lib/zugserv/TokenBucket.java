@@ -0,0 +1,46 @@
+package org.chernovia.lib.zugserv;
+
+/**
+ * A TokenBucket is a simple rate limiter: it holds up to a given number (its burst) of tokens, refilled continuously
+ * at a given rate, and each permitted action consumes a token.
+ */
+public class TokenBucket {
+    private final double ratePerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Creates a (full) TokenBucket.
+     * @param ratePerSecond tokens added per second
+     * @param burst the maximum number of tokens
+     */
+    public TokenBucket(double ratePerSecond, double burst) {
+        if (ratePerSecond <= 0 || burst < 1) throw new IllegalArgumentException("Bad rate/burst: " + ratePerSecond + "/" + burst);
+        this.ratePerNano = ratePerSecond / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    /**
+     * Consumes a token, if any.
+     * @return false if no token was available
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1) return false;
+        tokens--;
+        return true;
+    }
+
+    public synchronized double getTokens() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,108 @@
+package org.chernovia.lib.zugserv;
+
+import org.chernovia.lib.zugserv.enums.ZugAuthSource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TokenCache remembers recently verified login tokens (by their SHA-256 hash, never the tokens themselves), so that
+ * repeated logins with the same token (e.g., a storm of reconnections) needn't each be verified by the token's IdentityProvider.
+ * Entries expire after a fixed TTL or upon the token's own expiry (whichever comes first), and the least recently used
+ * entries are evicted beyond a maximum size.  Only successful verifications are cached.
+ */
+public class TokenCache {
+    private record Key(ZugAuthSource source, String hash) {}
+    private final LinkedHashMap<Key, IdentityProvider.Identity> entries;
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong();
+    private volatile long ttlMillis;
+
+    /**
+     * Creates a TokenCache.
+     * @param maxSize the maximum number of cached tokens
+     * @param ttlMillis how long (in millis) a verification is trusted, zero or less to disable caching
+     */
+    public TokenCache(int maxSize, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        entries = new LinkedHashMap<>(16, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, IdentityProvider.Identity> eldest) {
+                if (size() > maxSize) { evictions.incrementAndGet(); return true; }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets the cached identity of a token.
+     * @param source the authentication source
+     * @param token the token
+     * @return the identity, if cached and unexpired
+     */
+    public synchronized Optional<IdentityProvider.Identity> get(ZugAuthSource source, String token) {
+        Key key = new Key(source, hash(token));
+        IdentityProvider.Identity identity = entries.get(key);
+        if (identity != null && identity.expires() <= System.currentTimeMillis()) {
+            entries.remove(key); identity = null;
+        }
+        (identity != null ? hits : misses).incrementAndGet();
+        return Optional.ofNullable(identity);
+    }
+
+    /**
+     * Caches a verified token.
+     * @param source the authentication source
+     * @param token the token
+     * @param identity the identity it was verified as
+     */
+    public synchronized void put(ZugAuthSource source, String token, IdentityProvider.Identity identity) {
+        if (ttlMillis <= 0) return;
+        long now = System.currentTimeMillis();
+        long expires = Math.min(identity.expires(), now + ttlMillis);
+        if (expires > now) entries.put(new Key(source, hash(token)), new IdentityProvider.Identity(identity.name(), expires));
+    }
+
+    /**
+     * Forgets a token (e.g., upon its revocation).
+     * @param source the authentication source
+     * @param token the token
+     */
+    public synchronized void invalidate(ZugAuthSource source, String token) {
+        entries.remove(new Key(source, hash(token)));
+    }
+
+    /**
+     * Forgets every token identifying a given user.
+     * @param name the user's UniqueName
+     */
+    public synchronized void invalidate(ZugUser.UniqueName name) {
+        entries.entrySet().removeIf(e -> e.getKey().source() == name.source && e.getValue().name().equals(name.name));
+    }
+
+    public synchronized void invalidateAll() { entries.clear(); }
+
+    public synchronized int size() { return entries.size(); }
+
+    public long getHits() { return hits.get(); }
+
+    public long getMisses() { return misses.get(); }
+
+    public long getEvictions() { return evictions.get(); }
+
+    public long getTTL() { return ttlMillis; }
+
+    public void setTTL(long millis) { ttlMillis = millis; }
+
+    private static String hash(String token) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) { //every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -3,11 +3,14 @@ package org.chernovia.lib.zugserv;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import net.datafaker.Faker;
 import org.chernovia.lib.zugserv.enums.ZugScope;
 import org.chernovia.lib.zugserv.enums.ZugServMsgType;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.logging.Level;
 
 enum ZugAreaPhase {initializing,running,finalizing}
 
@@ -21,21 +24,29 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
         public boolean purgeAway; //TODO: should this drop away occupants?
         public boolean bumpAway; //TODO: what is this for?
         public boolean async;
+        public boolean virtualThread; //run the area on a virtual thread (Java 21+, otherwise falls back to a platform thread)
         public AreaConfig(boolean allowGuests, boolean purgeDeserted, boolean purgeAway, boolean bumpAway, boolean async) {
+            this(allowGuests, purgeDeserted, purgeAway, bumpAway, async, false);
+        }
+        public AreaConfig(boolean allowGuests, boolean purgeDeserted, boolean purgeAway, boolean bumpAway, boolean async, boolean virtualThread) {
             this.allowGuests = allowGuests;
             this.purgeDeserted = purgeDeserted;
             this.purgeAway = purgeAway;
             this.bumpAway = bumpAway;
             this.async = async;
+            this.virtualThread = virtualThread;
         }
     }
+    private static final MethodHandle virtualThreadFactory = findVirtualThreadFactory();
+    volatile MatchIndex matchIndex; //the MatchIndex (if any) used to find this area for random joins
     public final AreaConfig config;
     boolean created = false;
     public enum OperationType {start,stop,nudge}
     final private AreaListener listener;
     private String password;
     private ZugUser creator;
-    private final Set<Connection> observers =  Collections.synchronizedSet(new HashSet<>());
+    private final Set<Connection> observers = ConcurrentHashMap.newKeySet();
+    volatile ObserverIndex observerIndex; //the ObserverIndex (if any) mapping each observer to its observed areas
     private final List<Ban> banList = new ArrayList<>();
     private boolean exists = true;
     private Thread areaThread;
@@ -83,18 +94,60 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
         super(t);
         this.config = config;
         password = p; creator = c; listener = l;
-        areaThread = new Thread(this);
+        areaThread = newAreaThread();
         responseManager = new ResponseManager(this);
         phaseManager = config.async ? new PhaseManager(this) : new PhaseManagerSimple(this);
         action(ActionType.creation);
     }
 
+    /**
+     * Creates the (unstarted) thread that runs the area, which is virtual if so configured and supported.
+     * Note that PhaseManagerSimple's blocking (and interruptible) phases work the same either way.
+     * @return the area thread
+     */
+    private Thread newAreaThread() {
+        if (config.virtualThread) {
+            if (virtualThreadFactory != null) try {
+                return (Thread) virtualThreadFactory.invoke(this);
+            } catch (Throwable e) {
+                ZugHandler.log(Level.WARNING, "Virtual thread error: " + e.getMessage());
+            }
+            else ZugHandler.log(Level.WARNING, "Virtual threads unsupported, using platform thread for: " + getTitle());
+        }
+        return new Thread(this);
+    }
+
+    /**
+     * Gets an Executor running each task on a new virtual thread.
+     * @return the Executor, or null if virtual threads are unsupported
+     */
+    static Executor getVirtualExecutor() {
+        if (virtualThreadFactory == null) return null;
+        return task -> {
+            try { ((Thread) virtualThreadFactory.invoke(task)).start(); }
+            catch (Throwable e) { throw new RejectedExecutionException(e); }
+        };
+    }
+
+    private static MethodHandle findVirtualThreadFactory() { //i.e., Thread.ofVirtual().unstarted(runnable), looked up reflectively to run on Java 17
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(Class.forName("java.lang.Thread$Builder$OfVirtual")));
+            MethodHandle unstarted = lookup.findVirtual(builder, "unstarted", MethodType.methodType(Thread.class, Runnable.class));
+            return MethodHandles.foldArguments(unstarted.asType(
+                    MethodType.methodType(Thread.class, ofVirtual.type().returnType(), Runnable.class)), ofVirtual);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
     /**
      * Sets the existance of the ZugArea (i.e., if it's any longer being used)
      * @param e true for existence
      */
     public void setExistence(boolean e) {
-        exists = e;
+        exists = e; markChanged(); updateMatchmaking();
     }
 
     /**
@@ -122,7 +175,7 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
     }
 
     public void setCreator(ZugUser creator) {
-        this.creator = creator;
+        this.creator = creator; markChanged();
     }
 
     public String getPassword() {
@@ -178,7 +231,7 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
             dropOccupant(occupant);
             tell(occupant,ZugServMsgType.kicked, getTitle());
             tell(occupant,ZugServMsgType.updateArea, this.toJSON2(ZugScope.occupants_basic)); //TODO: use updateOccupants?
-            spam(ZugServMsgType.updateOccupants, this.toJSON2(ZugScope.occupants_basic));
+            spamOccupants();
         }
     }
 
@@ -190,7 +243,11 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
     public boolean addObserver(Connection conn) {  //(isOccupant(conn,true))
         if (conn == null || isOccupant(conn,false)) return false; else action(ActionType.obs);
         conn.tell(ZugServMsgType.obs,ZugUtils.newJSON().put(ZugFields.AREA_ID,getTitle()));
-        return observers.add(conn);
+        if (!observers.add(conn)) return false;
+        markChanged();
+        ObserverIndex index = observerIndex;
+        if (index != null) index.observe(conn,this);
+        return true;
     }
 
     /**
@@ -199,8 +256,25 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
      * @return true if successful
      */
     public boolean removeObserver(Connection conn) {
-        if (conn != null) conn.tell(ZugServMsgType.unObs,ZugUtils.newJSON().put(ZugFields.AREA_ID,getTitle()));
-        return observers.remove(conn);
+        if (!dropObserver(conn)) return false;
+        conn.tell(ZugServMsgType.unObs,ZugUtils.newJSON().put(ZugFields.AREA_ID,getTitle()));
+        return true;
+    }
+
+    private boolean dropObserver(Connection conn) {
+        if (conn == null || !observers.remove(conn)) return false;
+        markChanged();
+        ObserverIndex index = observerIndex;
+        if (index != null) index.unobserve(conn,this);
+        return true;
+    }
+
+    /**
+     * Gets the observing Connections.
+     * @return a copy of the set of observers
+     */
+    public Set<Connection> getObservers() {
+        return Set.copyOf(observers);
     }
 
     /**
@@ -236,7 +310,7 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
      */
     public void banOccupant(ZugUser bannor, Occupant occupant, long t, boolean drop) {
         if (bannor.equals(getCreator().orElse(null))) {
-            banList.add(new Ban(occupant.getUser(),t,bannor));
+            banList.add(new Ban(occupant.getUser(),t,bannor)); markChanged();
             if (drop) dropOccupant(occupant);
             spam(occupant.getUser().getName() + " has been banned");
         }
@@ -253,7 +327,7 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
      */
     public boolean setOptions(ZugUser user, JsonNode node) { //log("Setting Options: " + node.toString());
         if (user.equals(creator)) try {
-            optionsManager = new OptionsManager(node); return true;
+            optionsManager = new OptionsManager(node); markChanged(); return true;
         } catch (Exception e) { err(user,"Error setting options: " + e.getMessage() + ", json: " + node); }
         else err(user, "Permission denied(not creator)");
         return false;
@@ -274,9 +348,25 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
         spam(ZugServMsgType.updateOptions,ZugUtils.newJSON().set(ZugFields.OPTIONS, optionsManager.toJSON()));
     }
     public Thread getAreaThread() { return areaThread; }
-    public void setAreaThread(Thread areaThread) { this.areaThread = areaThread; }
+    public void setAreaThread(Thread areaThread) { this.areaThread = areaThread; updateMatchmaking(); }
 
     public boolean isRunning() { return running; }
+
+    /**
+     * Gets the key used to group areas for random joins (see ZugManager.getMatchKey()), for example a rating band.
+     * Subclasses overriding this should call updateMatchmaking() whenever their key changes.
+     * @return the matchmaking key (by default, an empty String)
+     */
+    public Object getMatchKey() { return ""; }
+
+    /**
+     * Refiles the area in its MatchIndex (if any) after a change in occupancy, joinability, or matchmaking key.
+     */
+    public void updateMatchmaking() {
+        MatchIndex index = matchIndex;
+        if (index != null) index.update(this);
+    }
+
     public boolean isOpen() {
         return areaThread == null;
     }
@@ -287,6 +377,7 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
     @Override
     public boolean dropOccupant(ZugUser user) {
         if (super.dropOccupant(user)) { //log("Dropping: " + user.getUniqueName().toString());
+            updateMatchmaking();
             if (checkPurge()) stopArea(true);
             return true;
         }
@@ -297,7 +388,7 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
         return created && config.purgeDeserted && isDeserted(config.purgeAway);
     }
 
-    public void setRunning(boolean running) { this.running = running; }
+    public void setRunning(boolean running) { this.running = running; markChanged(); }
 
     /**
      * Starts an area.  Note this does not send a ZugFields.ServMsgType.startArea message to the client and is a CompleteableFuture in case of subclasses
@@ -312,9 +403,10 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
             err(user,"Permission denied");
         }
         else if (areaThread.getState() == Thread.State.NEW) { //areaThread = new Thread(this);
-            running = true; //spam(ZugFields.ServMsgType.startArea,toJSON(true));
+            running = true; markChanged(); //spam(ZugFields.ServMsgType.startArea,toJSON(true));
             action(ActionType.start);
             areaThread.start();
+            updateMatchmaking();
             getListener().ifPresent(l -> {
                 l.areaStarted(this);
                 l.areaUpdated(this);
@@ -328,7 +420,7 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
 
     public void stopArea(boolean close) {
         if (areaThread != null) {
-            running = false;
+            running = false; markChanged();
             phaseManager.shutdownPhases();
         }
         if (close) getListener().ifPresent(l -> l.areaClosed(this));
@@ -355,7 +447,8 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
     @Override
     public boolean addOccupant(Occupant occupant) {
         if (super.addOccupant(occupant)) {
-            observers.remove(occupant.getUser().getConn());
+            dropObserver(occupant.getUser().getConn());
+            updateMatchmaking();
             getListener().ifPresent(l -> l.areaJoined(this, occupant));
             return true;
         }
@@ -374,21 +467,33 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
     @Override
     final public void spamX(Enum<?> t, String msg, Occupant... ignoreList) {
         super.spamX(t,msg,ignoreList);
-        for (Connection conn : observers) {
-            if (conn.getStatus() == Connection.Status.STATUS_DISCONNECTED) removeObserver(conn);
-            else conn.tell(t,ZugUtils.newJSON().put(ZugFields.MSG,msg).put(ZugFields.AREA_ID,getTitle()));
+        if (!observers.isEmpty()) {
+            EncodedMessage encodedMsg = EncodedMessage.encode(t,ZugUtils.newJSON().put(ZugFields.MSG,msg).put(ZugFields.AREA_ID,getTitle()));
+            for (Connection conn : observers) {
+                if (conn.getStatus() == Connection.Status.STATUS_DISCONNECTED) removeObserver(conn);
+                else conn.sendEncoded(encodedMsg);
+            }
         }
     }
 
     @Override
     final public void spamX(Enum<?> t, ObjectNode msgNode, Occupant... ignoreList) {
-        super.spamX(t,msgNode,ignoreList);
+        EncodedMessage encodedMsg = spamEncoded(t,msgNode,false,ignoreList);
         for (Connection conn : observers) {
             if (conn.getStatus() == Connection.Status.STATUS_DISCONNECTED) removeObserver(conn);
-            else conn.tell(t,msgNode.put(ZugFields.AREA_ID,getTitle()));
+            else conn.sendEncoded(encodedMsg);
         }
     }
 
+    @Override
+    protected List<Connection> getUpdateRecipients() {
+        List<Connection> recipients = super.getUpdateRecipients();
+        for (Connection conn : observers) {
+            if (conn.getStatus() != Connection.Status.STATUS_DISCONNECTED) recipients.add(conn);
+        }
+        return recipients;
+    }
+
     /**
      * Sends a message with the default type (ZugFields.ServMsgType.areaMsg).
      * @param occupant the message recipient
@@ -426,11 +531,13 @@ abstract public class ZugArea extends ZugRoom implements OccupantListener,Runnab
         return node;
     }
 
+    /**
+     * Generates a bot name (a color followed by an appliance) not shared by any current occupant.
+     * @return the bot name
+     */
     public String generateBotName() {
-        String colorName = new Faker().color().name().split(" ")[0];
-        if (colorName.length() > 1) {
-            return colorName.substring(0,1).toUpperCase() + colorName.substring(1) + new Faker().appliance().equipment().split(" ")[0];
-        } else return "wtf:" + colorName;
+        return NamePool.generateUnique(name -> getOccupants().stream()
+                .anyMatch(occupant -> occupant.getUser().getName().equalsIgnoreCase(name)), NamePool.COLORS, NamePool.APPLIANCES);
     }
 
 }
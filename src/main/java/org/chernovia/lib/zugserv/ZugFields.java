@@ -60,5 +60,13 @@ public interface ZugFields {
             RESPONSE = "response",
             RESPONSE_TYPE = "response_type",
             UPDATE_SCOPE = "up_scope",
-            PHASE_DATA = "phase_data";
+            PHASE_DATA = "phase_data",
+            DELTA = "delta",
+            DELTA_BASE = "delta_base",
+            DELTA_VERSION = "delta_version",
+            CURSOR = "cursor",
+            LIMIT = "limit",
+            SEQ = "seq",
+            SORT = "sort",
+            FILTERS = "filters";
 }
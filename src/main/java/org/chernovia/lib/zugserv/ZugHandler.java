@@ -1,8 +1,9 @@
 package org.chernovia.lib.zugserv;
 
 import chariot.Client;
-import chariot.ClientAuth;
 import chariot.api.AccountApiAuth;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -21,7 +22,13 @@ import org.chernovia.lib.zugserv.web.WebSockServ;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,13 +36,39 @@ import java.util.logging.Logger;
  * ZugHandler extends ConnListener and encapsulates ZugServ to provide basic server functionality.
  */
 abstract public class ZugHandler extends Thread implements ConnListener, JSONifier {
+
+    /**
+     * What to do with a message from a flooding Connection: drop it silently, drop it and warn the client
+     * (once per streak of flooded messages), or drop it and close the Connection.
+     */
+    public enum FloodPenalty { DROP, WARN, DISCONNECT }
+
     public static String GOOGLE_APPLICATION_CREDENTIALS_FILE_NAME = "google_app_credentials";
     private static boolean VERBOSE = true; //for enum names vs ordinal
     static final Logger logger = Logger.getLogger("ZugServLog");
     ConcurrentHashMap<String,ZugUser> users = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Connection,Set<ZugUser>> usersByConn = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,Set<ZugUser>> usersByOrigin = new ConcurrentHashMap<>();
     ConcurrentHashMap<String,ZugArea> areas = new ConcurrentHashMap<>();
+    final TimeoutWheel<ZugUser> userTimeouts = new TimeoutWheel<>();
+    final TimeoutWheel<ZugArea> areaTimeouts = new TimeoutWheel<>();
+    final AreaIndex areaIndex = new AreaIndex();
+    final MatchIndex matchIndex = new MatchIndex();
+    final ObserverIndex observerIndex = new ObserverIndex();
+    final NameAllocator nameAllocator = new NameAllocator();
     Map<ZugAuthSource,Boolean> authSources = new HashMap<>();
+    private final Map<ZugAuthSource,IdentityProvider> identityProviders = new ConcurrentHashMap<>(Map.<ZugAuthSource,IdentityProvider>of(
+            ZugAuthSource.lichess, ZugHandler::verifyLichessToken,
+            ZugAuthSource.google, new GoogleIdentityProvider()));
+    private final TokenCache tokenCache = new TokenCache(10000, 300000);
+    private final Set<Connection> pendingLogins = ConcurrentHashMap.newKeySet();
+    private volatile AuthPipeline authPipeline = new AuthPipeline(8, 256, 10000);
     private boolean preserveDisconnectedUsers = true;
+    private volatile int floodLimit = 0; //off unless configured (see setFloodControl())
+    private volatile long floodSpan = 10000;
+    private volatile FloodPenalty floodPenalty = FloodPenalty.WARN;
+    private final Map<String,Integer> messageCosts = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final LongAdder floodDrops = new LongAdder(), floodDisconnects = new LongAdder();
     ZugServ serv;
 
     public ZugHandler(ZugServ.ServType type, int port) {
@@ -83,30 +116,116 @@ abstract public class ZugHandler extends Thread implements ConnListener, JSONifi
         return logger.getLevel();
     }
 
+    /**
+     * Gets the user map (keyed by UniqueName).  Note that users should only be added or removed via addOrGetUser() and removeUser(),
+     * since these also maintain the Connection indices used by getUserByConn(), etc.
+     * @return the user map
+     */
     public ConcurrentHashMap<String,ZugUser> getUsers() {
         return users;
     }
 
     public Optional<ZugUser> addOrGetUser(ZugUser user) {
-        return Optional.ofNullable(users.putIfAbsent(user.getUniqueName().toString(), user));
+        ZugUser prevUser = users.putIfAbsent(user.getUniqueName().toString(), user);
+        if (prevUser == null) {
+            indexUser(user,user.getConn());
+            nameAllocator.add(user.getName());
+            userTimeouts.add(user);
+        }
+        return Optional.ofNullable(prevUser);
     }
 
     public Optional<ZugUser> removeUser(ZugUser user) {
-        return Optional.ofNullable(users.remove(user.getName()));
+        if (users.remove(user.getUniqueName().toString(), user)) {
+            unindexUser(user,user.getConn());
+            nameAllocator.remove(user.getName());
+            userTimeouts.remove(user);
+            return Optional.of(user);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Sets the Connection of a user while keeping the Connection indices consistent.
+     * @param user a ZugUser
+     * @param conn the user's new Connection
+     */
+    public void setUserConn(ZugUser user, Connection conn) {
+        Connection prevConn = user.getConn();
+        user.setConn(conn);
+        if (users.get(user.getUniqueName().toString()) == user) {
+            unindexUser(user,prevConn);
+            indexUser(user,conn);
+        }
+    }
+
+    private void indexUser(ZugUser user, Connection conn) {
+        if (conn == null) return;
+        usersByConn.computeIfAbsent(conn, c -> ConcurrentHashMap.newKeySet()).add(user);
+        usersByOrigin.computeIfAbsent(originOf(conn), origin -> ConcurrentHashMap.newKeySet()).add(user);
+    }
+
+    private void unindexUser(ZugUser user, Connection conn) {
+        if (conn == null) return;
+        usersByConn.computeIfPresent(conn, (c, set) -> set.remove(user) && set.isEmpty() ? null : set);
+        usersByOrigin.computeIfPresent(originOf(conn), (origin, set) -> set.remove(user) && set.isEmpty() ? null : set);
+    }
+
+    private static String originOf(Connection conn) {
+        return Objects.requireNonNullElse(conn.getOrigin(), ""); //not getAddress(), which clients may change
+    }
+
+    /**
+     * Indicates if an indexed user is still current, i.e., still registered and still using the indexed Connection
+     * (guards against ZugUser.setConn() having been called directly rather than via setUserConn()).
+     */
+    private boolean isCurrent(ZugUser user, Connection conn) {
+        return user.getConn() == conn && users.get(user.getUniqueName().toString()) == user;
     }
 
     public Optional<ZugArea> addOrGetArea(ZugArea area) {
-        return Optional.ofNullable(areas.putIfAbsent(area.getTitle(), area));
+        ZugArea prevArea = areas.putIfAbsent(area.getTitle(), area);
+        if (prevArea == null) {
+            areaTimeouts.add(area);
+            areaIndex.add(area);
+            matchIndex.add(area);
+            observerIndex.add(area);
+        }
+        return Optional.ofNullable(prevArea);
     }
 
     public Optional<ZugArea> removeArea(ZugArea area) {
-        return Optional.ofNullable(areas.remove(area.getTitle()));
+        ZugArea removed = areas.remove(area.getTitle());
+        if (removed != null) {
+            areaTimeouts.remove(removed);
+            areaIndex.remove(removed);
+            matchIndex.remove(removed);
+            observerIndex.remove(removed);
+            removed.getOccupants().forEach(occupant -> occupant.getUser().removeRoom(removed));
+        }
+        return Optional.ofNullable(removed);
     }
 
     public Collection<ZugArea> getAreas() {
         return areas.values();
     }
 
+    /**
+     * Gets the index used to list areas a page at a time (see ZugManager.handleListAreas()).
+     * @return the area index
+     */
+    public AreaIndex getAreaIndex() {
+        return areaIndex;
+    }
+
+    /**
+     * Gets the index of the areas observed by each Connection.
+     * @return the observer index
+     */
+    public ObserverIndex getObserverIndex() {
+        return observerIndex;
+    }
+
     public ZugServ getServ() {
         return serv;
     }
@@ -125,21 +244,66 @@ abstract public class ZugHandler extends Thread implements ConnListener, JSONifi
      * @return list of ZugAreas
      */
     public List<ZugArea> areasByUserToJSON(ZugUser user) {
-        return getAreas().stream().filter(area -> area.getOccupant(user).isPresent()).toList();
+        List<ZugArea> userAreas = new ArrayList<>();
+        for (ZugRoom room : user.getRooms()) {
+            if (room instanceof ZugArea area && isRegistered(area)) userAreas.add(area);
+        }
+        return userAreas;
+    }
+
+    private boolean isRegistered(ZugArea area) {
+        return areas.get(area.getTitle()) == area;
+    }
+
+    /**
+     * Checks that each user's set of occupied rooms (see ZugUser.getRooms()) agrees with the occupants of each area,
+     * and that the ObserverIndex agrees with the observers of each area.
+     * @return a list of inconsistencies (empty if none)
+     */
+    public List<String> checkAreaIndex() {
+        List<String> errors = new ArrayList<>();
+        for (ZugArea area : getAreas()) {
+            for (Occupant occupant : area.getOccupants()) {
+                if (!occupant.getUser().getRooms().contains(area)) {
+                    errors.add("Unindexed occupant: " + occupant.getUser().getUniqueName() + " in " + area.getTitle());
+                }
+            }
+        }
+        for (ZugUser user : users.values()) {
+            for (ZugRoom room : user.getRooms()) {
+                if (room instanceof ZugArea area && isRegistered(area) && area.getOccupant(user).isEmpty()) {
+                    errors.add("Stale index entry: " + user.getUniqueName() + " in " + area.getTitle());
+                }
+            }
+        }
+        for (ZugArea area : getAreas()) {
+            for (Connection conn : area.getObservers()) {
+                if (!observerIndex.getObserved(conn).contains(area)) errors.add("Unindexed observer: " + conn.getID() + " of " + area.getTitle());
+            }
+        }
+        observerIndex.forEach((conn, area) -> {
+            if (!area.isObserver(conn)) errors.add("Stale observer entry: " + conn.getID() + " of " + area.getTitle());
+        });
+        return errors;
     }
 
     public List<ZugUser> getUsersByConn(Connection conn) {
-        final List<ZugUser> userList = new Vector<>();
-        for (ZugUser user : users.values()) if (user.getConn().equals(conn)) userList.add(user); return userList;
+        Set<ZugUser> indexed = usersByConn.get(conn);
+        if (indexed == null) return List.of();
+        return indexed.stream().filter(user -> isCurrent(user,conn)).toList();
     }
 
     public Optional<ZugUser> getUserByConn(Connection conn) {
-        for (ZugUser user : users.values()) if (user.getConn().equals(conn)) return Optional.of(user);
+        Set<ZugUser> indexed = usersByConn.get(conn);
+        if (indexed != null) for (ZugUser user : indexed) if (isCurrent(user,conn)) return Optional.of(user);
         return Optional.empty();
     }
 
     public Optional<ZugUser> getUserByAddress(Connection conn) {
-        for (ZugUser user : users.values()) if (user.getConn().isSameOrigin(conn)) return Optional.of(user);
+        Set<ZugUser> indexed = usersByOrigin.get(originOf(conn));
+        if (indexed != null) for (ZugUser user : indexed) {
+            if (user.getConn().isSameOrigin(conn) && isCurrent(user,user.getConn())) return Optional.of(user);
+        }
         return Optional.empty();
     }
 
@@ -162,32 +326,105 @@ abstract public class ZugHandler extends Thread implements ConnListener, JSONifi
     }
 
     public void handleLichessLogin(Connection conn, String token) { //log("Handling lichess login");
+        handleTokenLogin(conn, ZugAuthSource.lichess, token);
+    }
+
+    public void handleGoogleLogin(Connection conn, String token) {
+        handleTokenLogin(conn, ZugAuthSource.google, token);
+    }
+
+    /**
+     * Begins a token based login, verifying the token asynchronously (see AuthPipeline) and then completing the login via handleLogin(),
+     * unless the Connection has since disconnected.  Only one such login may be pending per Connection, and it is completed
+     * in the Connection's serial context (see Connection.getSerialExecutor()), so never concurrently with its other messages.
+     * @param conn the Connection logging in
+     * @param source the authentication source
+     * @param token the login token
+     */
+    public void handleTokenLogin(Connection conn, ZugAuthSource source, String token) {
+        IdentityProvider provider = identityProviders.get(source);
         if (token == null || token.isEmpty() || token.equals(ZugFields.UNKNOWN_STRING)) {
             log("Login failure: Bad name/token"); err(conn, "Login failure: Bad name/token");
-        } else { //log("Logging in with token: " + token);
-            ClientAuth client = Client.auth(token);
-            AccountApiAuth aa = client.account(); //log("Created account: " + aa);
-            if (aa.profile().isPresent()) {
-                log("Logging in lichess user: " + aa.profile().get().name());
-                handleLogin(conn, new ZugUser.UniqueName(aa.profile().get().name(), ZugAuthSource.lichess),ZugUtils.newJSON().put(ZugFields.TOKEN,token));
-            } else {
+        }
+        else if (provider == null) err(conn, "Login error: source not found");
+        else if (!pendingLogins.add(conn)) err(conn, "Login already in progress");
+        else tokenCache.get(source, token)
+                .map(identity -> CompletableFuture.completedFuture(Optional.of(identity)))
+                .orElseGet(() -> authPipeline.verify(provider, token).thenApply(identity -> {
+                    identity.ifPresent(i -> tokenCache.put(source, token, i)); return identity;
+                }))
+                .whenComplete((identity, e) -> conn.getSerialExecutor().execute(() -> {
+            pendingLogins.remove(conn);
+            if (conn.getStatus() == Connection.Status.STATUS_DISCONNECTED) {
+                log(Level.FINE, "Discarding " + source + " login (disconnected)");
+            }
+            else if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof TimeoutException) {
+                    log(Level.WARNING, source + " login timeout"); err(conn, "Login failure: timeout");
+                }
+                else if (cause instanceof RejectedExecutionException) {
+                    log(Level.WARNING, source + " login rejected (busy)"); err(conn, "Login failure: server busy");
+                }
+                else {
+                    log(source + " login failure: " + cause.getMessage()); err(conn, "Login failure: bad token");
+                }
+            }
+            else if (identity.isPresent()) {
+                log("Logging in " + source + " user: " + identity.get().name());
+                try {
+                    handleLogin(conn, new ZugUser.UniqueName(identity.get().name(), source), ZugUtils.newJSON().put(ZugFields.TOKEN,token));
+                } catch (Exception ex) {
+                    log(Level.WARNING, "Login error: " + ex.getMessage()); err(conn, "Login error");
+                }
+            }
+            else {
                 log("Login failure: bad token"); err(conn, "Login failure: bad token");
             }
-        }
+        }));
     }
 
-    public void handleGoogleLogin(Connection conn, String token) {
-        try {
-            FirebaseToken firebaseToken = FirebaseAuth.getInstance().verifyIdToken(token);
-            if (firebaseToken != null) {
-                log("Logging in Google user: " + firebaseToken.getName());
-                handleLogin(conn, new ZugUser.UniqueName(firebaseToken.getName(), ZugAuthSource.google),ZugUtils.newJSON().put(ZugFields.TOKEN,token));
-            }
-        } catch (FirebaseAuthException e) {
-            log("Google Login failure: " + e.getMessage()); err(conn, "Login failure: bad token");
-        }
+    /**
+     * Sets the IdentityProvider used to verify login tokens from a given authentication source
+     * (e.g., a StubIdentityProvider for testing).
+     * @param source the authentication source
+     * @param provider the IdentityProvider
+     */
+    public void setIdentityProvider(ZugAuthSource source, IdentityProvider provider) {
+        identityProviders.put(source, provider);
+    }
+
+    /**
+     * Gets the cache of recently verified login tokens (e.g., for invalidation or hit/miss metrics).
+     * @return the TokenCache
+     */
+    public TokenCache getTokenCache() { return tokenCache; }
+
+    public AuthPipeline getAuthPipeline() { return authPipeline; }
+
+    public void setAuthPipeline(AuthPipeline pipeline) { authPipeline = pipeline; }
+
+    private static Optional<String> verifyLichessToken(String token) {
+        AccountApiAuth aa = Client.auth(token).account(); //log("Created account: " + aa);
+        return aa.profile().isPresent() ? Optional.of(aa.profile().get().name()) : Optional.empty();
+    }
 
+    /**
+     * Verifies Google (Firebase) ID tokens, including their expiry (i.e., the "exp" claim).
+     */
+    private static class GoogleIdentityProvider implements IdentityProvider {
+        @Override
+        public Optional<String> verify(String token) throws FirebaseAuthException {
+            return identify(token).map(Identity::name);
+        }
 
+        @Override
+        public Optional<Identity> identify(String token) throws FirebaseAuthException {
+            FirebaseToken firebaseToken = FirebaseAuth.getInstance().verifyIdToken(token);
+            if (firebaseToken == null) return Optional.empty();
+            return Optional.of(new Identity(firebaseToken.getName(),
+                    firebaseToken.getClaims().get("exp") instanceof Number exp ? exp.longValue() * 1000 : Long.MAX_VALUE));
+        }
     }
 
     public void spam(String msg) {
@@ -195,11 +432,19 @@ abstract public class ZugHandler extends Thread implements ConnListener, JSONifi
     }
 
     public void spam(Enum<?> type,String msg) {
-        for (ZugUser user : users.values()) user.tell(type,msg);
+        spam(EncodedMessage.encode(type,msg));
     }
 
     public void spam(Enum<?> type,JsonNode msgNode) {
-        for (ZugUser user : users.values()) user.tell(type,msgNode);
+        spam(EncodedMessage.encode(type,msgNode));
+    }
+
+    /**
+     * Sends an encoded message to all users (the message is serialized once regardless of the number of recipients).
+     * @param msg the encoded message
+     */
+    public void spam(EncodedMessage msg) {
+        for (ZugUser user : users.values()) user.tell(msg);
     }
 
     public void tell(Connection conn, Enum<?> type) {
@@ -253,28 +498,119 @@ abstract public class ZugHandler extends Thread implements ConnListener, JSONifi
 
     /**
      * Receives incoming messages from a Connection, handles pongs, and otherwise directs them to handleMsg() if JSON-readable.
+     * The message envelope is read via a streaming parser: pongs are handled without building any JSON tree,
+     * and only the data field is ever materialized (for handleMsg()).
+     * Messages are handled in the Connection's serial context (see Connection.getSerialExecutor()), on the calling
+     * thread unless the context is busy, e.g., completing a token login.
      * @param conn the Connection source
      * @param msg the message (typically but not necessarily in JSON format)
      */
     @Override
     public void newMsg(Connection conn, String msg) { //log("New Conn Message: " + msg);
-        JsonNode msgNode = ZugUtils.readTree(msg);
-        if (msgNode == null) {
+        conn.getSerialExecutor().run(() -> readMsg(conn,msg));
+    }
+
+    private void readMsg(Connection conn, String msg) {
+        if (chargeFlood(conn,1,null)) return;
+        String type = null; JsonNode dataNode = null; boolean hasData = false;
+        try (JsonParser parser = ZugUtils.newParser(msg)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (!(hasData && type != null) && parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken token = parser.nextToken();
+                    if (ZugFields.TYPE.equals(field)) {
+                        if (token.isScalarValue()) type = parser.getText(); else { parser.skipChildren(); type = ""; }
+                        if (chargeFlood(conn,getMessageCost(type) - 1,type)) return;
+                    }
+                    else if (ZugFields.DATA.equals(field)) {
+                        hasData = true;
+                        if (type != null && equalsType(type, ZugClientMsgType.pong)) parser.skipChildren();
+                        else dataNode = ZugUtils.readTree(parser);
+                    }
+                    else parser.skipChildren();
+                }
+            }
+        }
+        catch (IOException e) {
             log(Level.WARNING,"Bad JSON message: " + msg); return;
         }
-        JsonNode typeNode = msgNode.get("type"), dataNode = msgNode.get("data");
-        if (typeNode == null || dataNode == null) {
+        if (type == null || !hasData) {
             err(conn,"Error: Bad Data(null)"); //return;
         }
-        else if (equalsType(typeNode.asText(), ZugClientMsgType.pong)) {
+        else if (equalsType(type, ZugClientMsgType.pong)) {
             log(Level.FINE,"Pong from: " + conn.getID());
             conn.setLatency(System.currentTimeMillis() - conn.lastPing());
         }
         else {
-            handleMsg(conn,typeNode.asText(),dataNode);
+            handleMsg(conn,type,dataNode);
+        }
+    }
+
+    /**
+     * Charges a (possibly partial) message against a Connection's flood limit, applying the flood penalty if exceeded.
+     * @param conn the Connection
+     * @param cost the message's cost (charges of zero or less are ignored)
+     * @param type the message type (or null if not yet known)
+     * @return true if flooding, i.e., the message should be dropped
+     */
+    private boolean chargeFlood(Connection conn, int cost, String type) {
+        int limit = floodLimit;
+        if (cost <= 0 || limit <= 0 || !conn.isFlooding(cost, limit, floodSpan)) return false;
+        floodDrops.increment();
+        log(Level.FINE,"Flooding from: " + conn.getAddress() + ", type: " + type);
+        switch (floodPenalty) {
+            case WARN -> {
+                if (!(conn instanceof ConnAdapter adapter) || adapter.getFloodStreak() == 1) err(conn,"Too many messages, please slow down");
+            }
+            case DISCONNECT -> {
+                floodDisconnects.increment();
+                log(Level.WARNING,"Disconnecting flooder at: " + conn.getAddress());
+                conn.close("Flooding");
+            }
+            case DROP -> {}
         }
+        return true;
+    }
+
+    /**
+     * Configures flood control, whereby each Connection may send (on average) limit messages per span milliseconds,
+     * or in a single burst, after which its messages are dropped and the given penalty applied.
+     * Flood control is off by default; e.g., setFloodControl(100, 10000, FloodPenalty.WARN) allows 100 messages per 10 seconds.
+     * @param limit the number of messages (zero or less to disable flood control)
+     * @param span the timespan in milliseconds
+     * @param penalty the penalty
+     */
+    public void setFloodControl(int limit, long span, FloodPenalty penalty) {
+        floodSpan = span; floodPenalty = penalty; floodLimit = limit;
+    }
+
+    /**
+     * Sets the cost of a message type toward the flood limit (by default 1, which is also the minimum charged).
+     * @param type the enumerated message type
+     * @param cost the number of messages it counts as
+     */
+    public void setMessageCost(Enum<?> type, int cost) {
+        messageCosts.put(type.name(),cost);
+        messageCosts.put(String.valueOf(type.ordinal()),cost);
+    }
+
+    public int getMessageCost(String type) {
+        Integer cost = messageCosts.get(type);
+        return cost == null ? 1 : cost;
     }
 
+    /**
+     * Gets the number of messages dropped due to flooding.
+     * @return the number of messages
+     */
+    public long getFloodDrops() { return floodDrops.sum(); }
+
+    /**
+     * Gets the number of Connections closed for flooding.
+     * @return the number of Connections
+     */
+    public long getFloodDisconnects() { return floodDisconnects.sum(); }
+
     /**
      * Performs basic house-keeping following a disconnection.
      * @param conn The newly disconnected Connection
@@ -289,7 +625,9 @@ abstract public class ZugHandler extends Thread implements ConnListener, JSONifi
                 removeUser(user);
             }
         }
-        for (ZugArea area : getAreas()) area.removeObserver(conn);
+        for (ZugArea area : observerIndex.removeAll(conn)) area.removeObserver(conn);
+        usersByConn.remove(conn);
+        pendingLogins.remove(conn);
     }
 
     /**
@@ -352,6 +690,18 @@ abstract public class ZugHandler extends Thread implements ConnListener, JSONifi
         if (n == null) return Optional.empty(); else return Optional.of(n.asInt());
     }
 
+    /**
+     * Returns an Optional long value from a field at the top level of a JSON node.
+     * @param node JSON container node
+     * @param name name of a long field
+     * @return Optional value of long field
+     */
+    public static Optional<Long> getLongNode(JsonNode node, String name) {
+        if (node == null) return Optional.empty();
+        JsonNode n = node.get(name);
+        if (n == null) return Optional.empty(); else return Optional.of(n.asLong());
+    }
+
     /**
      * Returns an Optional double value from a field at the top level of a JSON node.
      * @param node JSON container node
@@ -420,12 +770,9 @@ abstract public class ZugHandler extends Thread implements ConnListener, JSONifi
 
     final public ObjectNode areasByUserToJSON(boolean showOccupants, ZugUser user) {
         ArrayNode arrayNode = ZugUtils.newJSONArray();
-        areas.values().forEach(area -> {
-            if (user == null || area.getOccupant(user).isPresent()) {
-                if (showOccupants) arrayNode.add(area.toJSON2(ZugScope.basic,ZugScope.occupants_basic));
-                else arrayNode.add(area.toJSON2(ZugScope.basic));
-            }
-
+        (user == null ? areas.values() : areasByUserToJSON(user)).forEach(area -> {
+            if (showOccupants) arrayNode.add(area.getSnapshot(ZugScope.basic,ZugScope.occupants_basic));
+            else arrayNode.add(area.getSnapshot(ZugScope.basic));
         });
         return ZugUtils.newJSON().set(ZugFields.AREAS,arrayNode);
     }
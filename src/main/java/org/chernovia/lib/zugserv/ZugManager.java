@@ -1,13 +1,13 @@
 package org.chernovia.lib.zugserv;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.time.MonthDay;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
-import net.datafaker.*;
 import org.chernovia.lib.zugserv.enums.*;
 
 /**
@@ -77,17 +77,22 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
     }
 
     /**
-     * Clears defunct areas and users.
+     * Clears defunct areas and users.  Only areas and users whose idle deadlines have passed are visited (see TimeoutWheel).
      */
     public synchronized void cleanup() {
-        areas.values().stream().filter(Timeoutable::timedOut).forEach(area -> { //handle rooms?
+        areaTimeouts.pollTimedOut().forEach(area -> { //handle rooms?
             area.spam(ZugServMsgType.servMsg,"Closing " + area.getTitle() + " (reason: timeout)");
             areaClosed(area);
         });
-        users.values().stream().filter(user -> user.timedOut() && areasByUserToJSON(user).isEmpty()).forEach(user -> {
-            log("Removing (idle): " + user.getUniqueName());
-            user.getConn().close("User Disconnection/Idle");
-            users.remove(user.getUniqueName().toString());
+        userTimeouts.pollTimedOut().forEach(user -> {
+            if (areasByUserToJSON(user).isEmpty()) {
+                log("Removing (idle): " + user.getUniqueName());
+                user.getConn().close("User Disconnection/Idle");
+                removeUser(user);
+            }
+            else if (users.get(user.getUniqueName().toString()) == user) {
+                userTimeouts.add(user); //still occupying an area, so check again next time
+            }
         });
     }
 
@@ -113,7 +118,12 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
     private boolean fancyGuestNames = true;
     private final List<Class<? extends Enum<?>>> commandList = new ArrayList<>();
     private int crowdThreshold = 100;
+    private int loginAreaListLimit = 0;
+    public static int AREA_PAGE_SIZE = 25, MAX_AREA_PAGE_SIZE = 100;
+    public static int SCROLLBACK_PAGE_SIZE = 50, MAX_SCROLLBACK_PAGE_SIZE = 200;
+    public static final String SERVER_CHANNEL = "server"; //HistoryStore channel of the server's message history
     private final Map<MonthDay,Set<String>> trafficMap = new HashMap<>();
+    private final Coalescer areaListUpdates = new Coalescer(25);
     private static final AtomicLong idCounter = new AtomicLong();
     public static String createID() {
         return String.valueOf(idCounter.getAndIncrement());
@@ -126,6 +136,7 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
     }
 
     private final Map<Enum<?>,CommandHandler> handMap = new HashMap<>();
+    private volatile CommandTable commandTable = null;
 
     /**
      * Creates a ZugManager of a given type.
@@ -167,11 +178,13 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
         addHandler(ZugClientMsgType.privMsg,this::handlePrivateMessage);
         addHandler(ZugClientMsgType.areaMsg,this::handleAreaMsg);
 
+        addHandler(ZugClientMsgType.listAreas,this::handleListAreas);
         addHandler(ZugClientMsgType.updateServ,this::handleUpdateServ);
         addHandler(ZugClientMsgType.updateArea,this::handleUpdateArea);
         addHandler(ZugClientMsgType.updateOccupant,this::handleUpdateOccupant);
         addHandler(ZugClientMsgType.updateUser,this::handleUpdateUser);
         addHandler(ZugClientMsgType.getMessages,this::handleUpdateMessages);
+        addHandler(ZugClientMsgType.getScrollback,this::handleScrollback);
 
         addHandler(ZugClientMsgType.setDeaf,this::handleDeafen);
         addHandler(ZugClientMsgType.ban,this::handleBan);
@@ -202,6 +215,23 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
         this.fancyGuestNames = fancyGuestNames;
     }
 
+    /**
+     * Persists the server's (i.e., lobby) message history.  Areas may likewise persist their own histories (see ZugRoom.getMessageManager()),
+     * given channel names that remain stable across restarts.
+     * @param store the HistoryStore (or null to stop persisting)
+     */
+    public void setHistoryStore(HistoryStore store) {
+        messageManager.setStore(store, SERVER_CHANNEL);
+    }
+
+    /**
+     * Gets the server's (i.e., lobby) message history.
+     * @return the MessageManager
+     */
+    public MessageManager getMessageManager() {
+        return messageManager;
+    }
+
     public int getCrowdThreshold() {
         return crowdThreshold;
     }
@@ -210,12 +240,43 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
         crowdThreshold = n;
     }
 
-    public void addMessageList(Class<? extends Enum<?>> e) {
+    public int getLoginAreaListLimit() {
+        return loginAreaListLimit;
+    }
+
+    /**
+     * Limits the area list sent upon login to its first page (by title), after which clients may request further pages via
+     * ZugClientMsgType.listAreas.
+     * @param n the page size, or zero to send every area (the default)
+     */
+    public void setLoginAreaListLimit(int n) {
+        loginAreaListLimit = n;
+    }
+
+    public synchronized void addMessageList(Class<? extends Enum<?>> e) {
         commandList.add(e);
+        commandTable = null;
     }
 
-    public void addHandler(Enum<?> e, CommandHandler handler) {
+    public synchronized void addHandler(Enum<?> e, CommandHandler handler) {
         handMap.put(e,handler);
+        commandTable = null;
+    }
+
+    /**
+     * Gets the command dispatch table, (re)building it if any commands or handlers have been added since it was last built.
+     * @return the dispatch table
+     */
+    private CommandTable getCommandTable() {
+        CommandTable table = commandTable;
+        if (table == null) synchronized (this) {
+            table = commandTable;
+            if (table == null) {
+                table = CommandTable.build(commandList,handMap);
+                commandTable = table;
+            }
+        }
+        return table;
     }
 
     /**
@@ -249,24 +310,24 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
         }
     }
 
+    /**
+     * Dispatches a user message to its handler(s) via a single table lookup (see addMessageList() and addHandler()).
+     * If no handler applies, redirects to handleUnsupportedMsg().
+     * @param user the ZugUser
+     * @param type the message type (as String)
+     * @param dataNode the message content (in JSON)
+     */
     public void handleUserMsg(ZugUser user, String type, JsonNode dataNode) {
-        List<CommandHandler> handleList = new ArrayList<>();
-        commandList.forEach(cmdSet -> {
+        boolean handled = false;
+        for (CommandHandler handler : getCommandTable().lookup(type)) {
             try {
-                Arrays.stream(cmdSet.getEnumConstants()).
-                        filter(eCon -> eCon.name().equalsIgnoreCase(type))
-                        .forEach(e -> {
-                    CommandHandler handler = handMap.get(e);
-                    if (handler != null) {
-                        handler.handleCommand(user,dataNode);
-                        handleList.add(handler);
-                    }
-                });
+                handler.handleCommand(user,dataNode);
+                handled = true;
             }
             catch (IllegalArgumentException ignore) { //err(user,"No such command type: " + type);
             }
-        });
-        if (handleList.isEmpty()) {
+        }
+        if (!handled) {
             handleUnsupportedMsg(user.getConn(),type,dataNode,user);
         }
     }
@@ -303,8 +364,7 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
     }
 
     public String generateAreaName() {
-        String name = new Faker().chess().opening().replace(" ","").replace("'","");
-        if (getAreaByTitle(name).isPresent()) return name + createID(); else return name;
+        return NamePool.generateUnique(title -> getAreaByTitle(title).isPresent(), NamePool.OPENINGS);
     }
 
     public Optional<ZugArea> handleJoinArea(ZugUser user, JsonNode dataNode) {
@@ -316,15 +376,30 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
         return a;
     }
 
-    public Optional<ZugArea> handleJoinRandomArea(ZugUser user, JsonNode dataNode) { //default is to join the area with the most users
-        AtomicReference<Optional<ZugArea>> a = new AtomicReference<>(areas.values().stream()
-                .filter(ZugArea::isOpen).sorted().findFirst());
+    /**
+     * Joins the least occupied open area sharing the user's matchmaking key (see getMatchKey()), or else creates a new area.
+     * @param user the joining user
+     * @param dataNode the JSON-formatted join request
+     * @return the joined (or created) area
+     */
+    public Optional<ZugArea> handleJoinRandomArea(ZugUser user, JsonNode dataNode) {
+        AtomicReference<Optional<ZugArea>> a = new AtomicReference<>(matchIndex.findArea(getMatchKey(user, dataNode)));
         a.get().ifPresentOrElse(area -> handleCreateOccupant(user, area, dataNode)
                                 .ifPresent(occupant -> joinArea(area,occupant))
                         , () -> a.set(handleCreateArea(user, dataNode)));
         return a.get();
     }
 
+    /**
+     * Gets the matchmaking key a user wishes to join a random area with (see ZugArea.getMatchKey()).
+     * @param user the joining user
+     * @param dataNode the JSON-formatted join request
+     * @return the matchmaking key (by default, an empty String)
+     */
+    protected Object getMatchKey(ZugUser user, JsonNode dataNode) {
+        return "";
+    }
+
     public Optional<ZugArea> handlePartArea(ZugUser user, JsonNode dataNode) {
         Optional<ZugArea> a = getArea(dataNode);
         a.ifPresentOrElse(zugArea -> zugArea.getOccupant(user)
@@ -364,6 +439,34 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
         return a;
     }
 
+    /**
+     * Sends a page of areas, as requested by ZugFields.SORT (see ZugAreaSort), ZugFields.FILTERS (an array of ZugAreaFilters),
+     * ZugFields.LIMIT, and ZugFields.CURSOR (as returned with the previous page, if any).
+     * @param user the requesting user
+     * @param dataNode the JSON-formatted request
+     */
+    public void handleListAreas(ZugUser user, JsonNode dataNode) {
+        ZugAreaSort sort = getEnumNode(dataNode, ZugAreaSort.class, ZugFields.SORT).orElse(ZugAreaSort.title);
+        int limit = Math.max(1, Math.min(getIntNode(dataNode, ZugFields.LIMIT).orElse(AREA_PAGE_SIZE), MAX_AREA_PAGE_SIZE));
+        List<ZugAreaFilter> filters = new ArrayList<>();
+        getJSONNode(dataNode, ZugFields.FILTERS).ifPresent(node -> node.forEach(f ->
+                Arrays.stream(ZugAreaFilter.values()).filter(e -> e.name().equalsIgnoreCase(f.asText())).findFirst().ifPresent(filters::add)));
+        try {
+            AreaIndex.Page page = getAreaIndex().getPage(sort, getTxtNode(dataNode, ZugFields.CURSOR, true).orElse(null),
+                    limit, AreaIndex.toPredicate(filters));
+            user.tell(ZugServMsgType.areaList, areaPageToJSON(page).put(ZugFields.SORT, sort.name()));
+        }
+        catch (IllegalArgumentException e) { err(user, e.getMessage()); }
+    }
+
+    private ObjectNode areaPageToJSON(AreaIndex.Page page) {
+        ArrayNode arrayNode = ZugUtils.newJSONArray();
+        page.areas().forEach(area -> arrayNode.add(area.getSnapshot(ZugScope.basic,ZugScope.occupants_basic)));
+        ObjectNode node = ZugUtils.newJSON();
+        node.set(ZugFields.AREAS, arrayNode);
+        return node.put(ZugFields.CURSOR, page.cursor());
+    }
+
     public void handleUpdateServ(ZugUser user, JsonNode dataNode) {
         updateServ(user.getConn());
     }
@@ -371,9 +474,10 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
     public Optional<ZugArea> handleUpdateArea(ZugUser user, JsonNode dataNode) {
         Optional<ZugArea> a = getArea(dataNode);
         a.ifPresent(area -> {
-                    if (!area.isPrivate()) user.tell(ZugServMsgType.updateArea,area.toJSON2(ZugScope.all));
-                    else getOccupant(user,dataNode).ifPresent(occupant ->
-                            area.tell(occupant, ZugServMsgType.updateArea, area.toJSON2(ZugScope.all)));
+                    area.resetDelta(user.getConn());
+                    if (!area.isPrivate()) area.sendUpdate(user,ZugServMsgType.updateArea,ZugScope.all);
+                    else getOccupant(user,dataNode).filter(occupant -> !occupant.isDeafened()).ifPresent(occupant ->
+                            area.sendUpdate(user,ZugServMsgType.updateArea,ZugScope.all));
                 }
         );
         return a;
@@ -402,6 +506,35 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
         return a;
     }
 
+    /**
+     * Sends a range of persisted messages (see setHistoryStore() and MessageManager.getRange()), i.e., scrollback beyond
+     * the in-memory history, as requested by ZugFields.SEQ (the first sequence number, defaulting to zero) and ZugFields.LIMIT.
+     * Messages are from the area given by ZugFields.AREA_ID, if any, and otherwise from the server.  Each message is
+     * sent along with its sequence number, and ZugFields.SEQ holds the sequence number from which to request the next range.
+     * @param user the requesting user
+     * @param dataNode the JSON-formatted request
+     */
+    public void handleScrollback(ZugUser user, JsonNode dataNode) {
+        long fromSeq = Math.max(0, getLongNode(dataNode, ZugFields.SEQ).orElse(0L));
+        int limit = Math.max(1, Math.min(getIntNode(dataNode, ZugFields.LIMIT).orElse(SCROLLBACK_PAGE_SIZE), MAX_SCROLLBACK_PAGE_SIZE));
+        ObjectNode node = ZugUtils.newJSON();
+        MessageManager manager = messageManager;
+        if (dataNode.has(ZugFields.AREA_ID)) {
+            Optional<ZugArea> area = getArea(dataNode);
+            if (area.isEmpty()) { err(user, ERR_TITLE_NOT_FOUND); return; }
+            manager = area.get().getMessageManager();
+            node.put(ZugFields.AREA_ID, area.get().getTitle());
+        }
+        ArrayNode arrayNode = ZugUtils.newJSONArray();
+        long nextSeq = fromSeq;
+        for (HistoryStore.Entry entry : manager.getRange(fromSeq, limit)) {
+            arrayNode.add(ZugUtils.newJSON().put(ZugFields.SEQ, entry.seq()).set(ZugFields.MSG, entry.msg()));
+            nextSeq = entry.seq() + 1;
+        }
+        node.set(ZugFields.MSG_HISTORY, arrayNode);
+        user.tell(ZugServMsgType.scrollback, node.put(ZugFields.SEQ, nextSeq));
+    }
+
     public void handleDeafen(ZugUser user, JsonNode dataNode) {
         getOccupant(user,dataNode).ifPresent(occupant -> getBoolNode(dataNode,ZugFields.DEAFENED).ifPresent(occupant::setDeafened));
     }
@@ -626,7 +759,10 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
         log("logged in: " + user.getUniqueName());
         user.setLoggedIn(true);
         user.tell(ZugServMsgType.logOK,user.toJSON());
-        user.tell(ZugServMsgType.areaList, areasByUserToJSON(true,isCrowded() ? user : null));
+        if (loginAreaListLimit > 0 && !isCrowded()) {
+            user.tell(ZugServMsgType.areaList, areaPageToJSON(getAreaIndex().getPage(ZugAreaSort.title, null, loginAreaListLimit, area -> true)));
+        }
+        else user.tell(ZugServMsgType.areaList, areasByUserToJSON(true,isCrowded() ? user : null));
         updateServ(user.getConn()); //TODO: incorporate arealist?
         MonthDay monthDay = MonthDay.now();
         trafficMap.putIfAbsent(monthDay,new HashSet<>());
@@ -641,7 +777,7 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
      */
     public void swapConnection(ZugUser prevUser, Connection newConn) {
         newConn.tell(ZugServMsgType.servMsg,"Already logged in, swapping connections");
-        prevUser.setConn(newConn);
+        setUserConn(prevUser,newConn);
         handleLoggedIn(prevUser);
     }
 
@@ -715,16 +851,37 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
 
     /**
      * Notifies users of a change in an area. Does nothing while isCrowded() is true.
+     * Bursts of ZugAreaChange.updated notifications for the same area are coalesced (see setAreaListUpdateWindow()),
+     * while creations and deletions are sent immediately (deletions also cancelling any pending update).
      * @param area the changed area
      * @param change the enumerated type of change (e.g., ZugFields.AreaChange.created, etc.)
      */
     public void handleAreaListUpdate(ZugArea area, ZugAreaChange change) {
+        Coalescer.Key key = new Coalescer.Key(area, ZugServMsgType.updateAreaList);
+        if (change == ZugAreaChange.updated) {
+            areaListUpdates.submit(key, () -> spamAreaListUpdate(area, change));
+        }
+        else {
+            if (change == ZugAreaChange.deleted) areaListUpdates.cancel(key);
+            spamAreaListUpdate(area, change);
+        }
+    }
+
+    private void spamAreaListUpdate(ZugArea area, ZugAreaChange change) {
         if (!isCrowded() && area.exists()) {
             spam(ZugServMsgType.updateAreaList,ZugUtils.newJSON()
-                    .put(ZugFields.AREA_CHANGE,change.name()).set(ZugFields.AREA,area.toJSON2(ZugScope.basic,ZugScope.occupants_basic)));
+                    .put(ZugFields.AREA_CHANGE,change.name()).set(ZugFields.AREA,area.getSnapshot(ZugScope.basic,ZugScope.occupants_basic)));
         }
     }
 
+    /**
+     * Sets the window within which area list updates are coalesced.
+     * @param millis the window (in millis), zero or less to send every update immediately
+     */
+    public void setAreaListUpdateWindow(long millis) {
+        areaListUpdates.setWindow(millis);
+    }
+
     /**
      * Called upon creation of a new area.
      * @param area the newly created Area
@@ -837,15 +994,9 @@ abstract public class ZugManager extends ZugHandler implements AreaListener, Run
      */
     public ZugUser.UniqueName generateGuestName(String name) {
         if (fancyGuestNames && name.equals(ZugFields.GUEST)) {
-            name = new Faker().artist().name().replace(" ","") + new Faker().animal().name();
-        }
-        final StringBuilder userName = new StringBuilder(name);
-        int i = 0; //int l = name.length()+1;
-        while (users.values().stream().anyMatch(user -> user.getName().equalsIgnoreCase(userName.toString()))) {
-            userName.replace(0,userName.length(),name + (++i));
-
+            name = NamePool.generate(NamePool.ARTISTS, NamePool.ANIMALS);
         }
-        return new ZugUser.UniqueName(userName.toString(), ZugAuthSource.none);
+        return new ZugUser.UniqueName(nameAllocator.allocate(name), ZugAuthSource.none);
     }
 
 }
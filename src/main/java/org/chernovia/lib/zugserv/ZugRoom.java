@@ -6,6 +6,7 @@ import org.chernovia.lib.zugserv.enums.ZugScope;
 import org.chernovia.lib.zugserv.enums.ZugServMsgType;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A ZugRoom represents an area that can contain and rudimentarily manage an arbitrarily defined number of Occupants.
@@ -22,6 +23,18 @@ abstract public class ZugRoom extends Timeoutable implements Comparable<ZugRoom>
 
     private final MessageManager messageManager = new MessageManager();
 
+    private static final Coalescer occupantUpdates = new Coalescer(25);
+
+    private final Map<List<Enum<?>>,DeltaTracker> deltaTrackers = new ConcurrentHashMap<>();
+
+    private record Snapshot(long version, long stamp, ObjectNode node) {}
+
+    private final Map<List<Enum<?>>,Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    private final AtomicLong stateVersion = new AtomicLong();
+
+    private static volatile long snapshotMaxAge = 1000;
+
     public ZugRoom(String title) {
         this.title = title;
     }
@@ -65,8 +78,10 @@ abstract public class ZugRoom extends Timeoutable implements Comparable<ZugRoom>
      */
     public boolean addOccupant(Occupant occupant) {
         if (occupants.putIfAbsent(occupant.getUser().getUniqueName().toString(),occupant) == null) {
+            occupant.getUser().addRoom(this);
+            markChanged();
             action(ActionType.join);
-            spam(ZugServMsgType.updateOccupants, toJSON2(ZugScope.occupants_basic));
+            spamOccupants();
             return true;
         }
         return false;
@@ -96,14 +111,100 @@ abstract public class ZugRoom extends Timeoutable implements Comparable<ZugRoom>
      * @return The departed Occupant, if successful
      */
     public boolean dropOccupant(ZugUser user) {
-        if (occupants.remove(user.getUniqueName().toString()) != null) {
+        Occupant occupant = occupants.remove(user.getUniqueName().toString());
+        if (occupant != null) {
+            occupant.getUser().removeRoom(this); user.removeRoom(this);
+            markChanged();
             action(ActionType.part);
-            spam(ZugServMsgType.updateOccupants, toJSON2(ZugScope.occupants_basic));
+            spamOccupants();
             return true;
         }
         return false;
     }
 
+    /**
+     * Sends all Occupants the current list of Occupants.  Bursts of such updates (e.g., from many quick joins)
+     * are coalesced into a single snapshot (see setOccupantUpdateWindow()).
+     */
+    public void spamOccupants() {
+        occupantUpdates.submit(new Coalescer.Key(this, ZugServMsgType.updateOccupants),
+                () -> spamUpdate(ZugServMsgType.updateOccupants, ZugScope.occupants_basic));
+    }
+
+    /**
+     * Sends all Occupants a scoped snapshot of the room (i.e., toJSON2(scopes)).  If delta updates are enabled for
+     * the given scopes (see enableDelta()), recipients are only sent whatever has changed since their previous update.
+     * @param type the enumerated message type
+     * @param scopes the snapshot's scopes
+     */
+    public void spamUpdate(Enum<?> type, Enum<?>... scopes) {
+        DeltaTracker tracker = deltaTrackers.get(List.of(scopes));
+        if (tracker == null) spam(type, toJSON2(scopes));
+        else tracker.send(type, toJSON2(scopes), getTitle(), getUpdateRecipients());
+    }
+
+    /**
+     * Sends a user a scoped snapshot of the room.  If delta updates are enabled for the given scopes, this is a full
+     * versioned snapshot, to which subsequent delta updates (see spamUpdate()) will apply.
+     * @param user the recipient
+     * @param type the enumerated message type
+     * @param scopes the snapshot's scopes
+     */
+    public void sendUpdate(ZugUser user, Enum<?> type, Enum<?>... scopes) {
+        DeltaTracker tracker = deltaTrackers.get(List.of(scopes));
+        if (tracker == null) user.tell(type, toJSON2(scopes));
+        else if (user.getConn() != null) {
+            tracker.reset(user.getConn());
+            tracker.send(type, toJSON2(scopes), getTitle(), List.of(user.getConn()));
+        }
+    }
+
+    /**
+     * Enables (versioned, JSON-patch-like) delta updates for a given combination of scopes.  See DeltaTracker for details.
+     * @param historySize the number of previous versions that can be diffed from
+     * @param scopes the scopes (as passed to spamUpdate())
+     */
+    public void enableDelta(int historySize, Enum<?>... scopes) {
+        deltaTrackers.putIfAbsent(List.of(scopes), new DeltaTracker(historySize));
+    }
+
+    public void disableDelta(Enum<?>... scopes) {
+        deltaTrackers.remove(List.of(scopes));
+    }
+
+    public boolean isDelta(Enum<?>... scopes) {
+        return deltaTrackers.containsKey(List.of(scopes));
+    }
+
+    /**
+     * Ensures the next delta update (of any scope) sent to a Connection is a full snapshot, e.g., upon a version mismatch.
+     * @param conn the Connection
+     */
+    public void resetDelta(Connection conn) {
+        deltaTrackers.values().forEach(tracker -> tracker.reset(conn));
+    }
+
+    /**
+     * Gets the Connections that would receive a spam() (i.e., those of undeafened Occupants that aren't away).
+     * @return a list of Connections
+     */
+    protected List<Connection> getUpdateRecipients() {
+        List<Connection> recipients = new ArrayList<>();
+        for (Occupant occupant : occupants.values()) {
+            Connection conn = occupant.getUser().getConn();
+            if (conn != null && !occupant.isAway() && !occupant.isDeafened()) recipients.add(conn);
+        }
+        return recipients;
+    }
+
+    /**
+     * Sets the window within which occupant list updates are coalesced (for all rooms).
+     * @param millis the window (in millis), zero or less to send every update immediately
+     */
+    public static void setOccupantUpdateWindow(long millis) {
+        occupantUpdates.setWindow(millis);
+    }
+
     public final boolean isPrivate() {
         return isPrivate;
     }
@@ -199,13 +300,15 @@ abstract public class ZugRoom extends Timeoutable implements Comparable<ZugRoom>
      * @param exclude a list of excluded Occupants
      */
     public void spamX(Enum<?> type, String msg, Occupant... exclude) {
+        EncodedMessage encodedMsg = EncodedMessage.encode(type,
+                (msg.isBlank() ? ZugUtils.newJSON() : ZugUtils.newJSON().put(ZugFields.MSG,msg)).put(ZugFields.AREA_ID,getTitle()));
         for (Occupant occupant : occupants.values()) {
             if (exclude != null) {
                 if (Arrays.stream(exclude).noneMatch(o -> o.equals(occupant))) {
-                    tell(occupant,type,msg);
+                    tell(occupant,encodedMsg,false);
                 }
             }
-            else if (!occupant.isAway()) tell(occupant,type,msg);
+            else if (!occupant.isAway()) tell(occupant,encodedMsg,false);
         }
     }
 
@@ -228,16 +331,30 @@ abstract public class ZugRoom extends Timeoutable implements Comparable<ZugRoom>
      * @param exclude a list of excluded Occupants
      */
     public final void spamX(Enum<?> type, ObjectNode msgNode, boolean ignoreDeafness, Occupant... exclude) {
+        spamEncoded(type,msgNode,ignoreDeafness,exclude);
+    }
+
+    /**
+     * Adds the room's area id to a message, encodes it once, and sends it to all unexcluded Occupants.
+     * @param type an enumerated type
+     * @param msgNode a JSON-encoded message
+     * @param ignoreDeafness if true, ignores isDeafened()
+     * @param exclude a list of excluded Occupants
+     * @return the encoded message (for any further recipients)
+     */
+    final EncodedMessage spamEncoded(Enum<?> type, ObjectNode msgNode, boolean ignoreDeafness, Occupant... exclude) {
+        EncodedMessage encodedMsg = EncodedMessage.encode(type,msgNode.put(ZugFields.AREA_ID,getTitle()));
         occupants.values().forEach(occupant -> {
             if (exclude != null) { //System.out.println("Checking ignore list");
                 if (Arrays.stream(exclude).noneMatch(o -> o.equals(occupant))) {
-                    tell(occupant,type, msgNode,ignoreDeafness);
+                    tell(occupant,encodedMsg,ignoreDeafness);
                 }
-            } else if (!occupant.isAway()) tell(occupant,type, msgNode,ignoreDeafness);
+            } else if (!occupant.isAway()) tell(occupant,encodedMsg,ignoreDeafness);
         });
         if (type.equals(ZugServMsgType.areaUserMsg) || type.equals(ZugServMsgType.roomUserMsg)) {
-            messageManager.addMessage(msgNode);
+            messageManager.addMessage(msgNode); markChanged();
         }
+        return encodedMsg;
     }
 
     /**
@@ -309,6 +426,64 @@ abstract public class ZugRoom extends Timeoutable implements Comparable<ZugRoom>
         if (!occupant.isDeafened() || ignoreDeafness) occupant.getUser().tell(type, node.put(ZugFields.AREA_ID,getTitle()));
     }
 
+    /**
+     * Sends an already encoded message (which should already contain the room's area id, see spamEncoded()).
+     * @param occupant the message recipient
+     * @param msg the encoded message
+     * @param ignoreDeafness it true, message is sent regardless of isDeafened()
+     */
+    public final void tell(Occupant occupant, EncodedMessage msg, boolean ignoreDeafness) {
+        if (!occupant.isDeafened() || ignoreDeafness) occupant.getUser().tell(msg);
+    }
+
+    /**
+     * Gets the room's message history.
+     * @return the MessageManager
+     */
+    public MessageManager getMessageManager() {
+        return messageManager;
+    }
+
+    /**
+     * Indicates that the room's state has changed, invalidating any cached snapshots (see getSnapshot()).
+     * Subclasses whose toJSON2() includes state of their own should call this whenever that state changes.
+     */
+    public final void markChanged() {
+        stateVersion.incrementAndGet();
+    }
+
+    /**
+     * Gets the room's state version, which is incremented upon every change (see markChanged()).
+     * @return the state version
+     */
+    public final long getStateVersion() {
+        return stateVersion.get();
+    }
+
+    /**
+     * Gets a cached toJSON2(scopes), rebuilt only if the room has since changed or the cached copy is older than the maximum
+     * snapshot age (which bounds the staleness of time dependent or untracked fields).  The returned node is shared, and so must
+     * not be modified - it is meant to be embedded in larger messages such as area lists.
+     * @param scopes the snapshot's scopes
+     * @return a read-only JSON snapshot
+     */
+    public final ObjectNode getSnapshot(Enum<?>... scopes) {
+        List<Enum<?>> key = List.of(scopes);
+        long version = stateVersion.get(), now = System.currentTimeMillis();
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot == null || snapshot.version() != version || now - snapshot.stamp() > snapshotMaxAge) {
+            snapshot = new Snapshot(version, now, toJSON2(scopes));
+            snapshots.put(key, snapshot);
+        }
+        return snapshot.node();
+    }
+
+    /**
+     * Sets how long (in millis) a cached snapshot may be reused even when the room hasn't changed (see getSnapshot()).
+     * @param millis the maximum snapshot age, zero or less to always rebuild
+     */
+    public static void setSnapshotMaxAge(long millis) { snapshotMaxAge = millis; }
+
     //@Override public ObjectNode toJSON() { return toJSON2(ZugScope.basic); }
     public ObjectNode toJSON2(Enum<?>... scopes) {
         ObjectNode node = ZugUtils.newJSON();
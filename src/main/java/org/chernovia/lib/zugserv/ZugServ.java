@@ -78,7 +78,7 @@ public interface ZugServ {
 
 	/**
 	 * Sets the maximum number of allowed connections.
-	 * @param c number of connections
+	 * @param c number of connections (zero or less for no maximum)
 	 */
 	void setMaxConnections(int c);
 
@@ -4,6 +4,9 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.chernovia.lib.zugserv.enums.ZugAuthSource;
 import org.chernovia.lib.zugserv.enums.ZugServMsgType;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * ZugUser encapsulates a Connection with indentiable data relating to an identifiable (typically logged in/authenticated) user.
@@ -56,7 +59,7 @@ public class ZugUser extends Timeoutable implements JSONifier {  // long lastMes
         }
     }
 
-    //Set<ZugArea> areas = Collections.synchronizedSet(new LinkedHashSet<>());
+    private final Set<ZugRoom> rooms = ConcurrentHashMap.newKeySet(); //maintained by ZugRoom.addOccupant()/dropOccupant()
 
     /**
      * Creates a ZugUser with a Connection, name, authentication source, and (possibly null) authentication token.
@@ -81,6 +84,16 @@ public class ZugUser extends Timeoutable implements JSONifier {  // long lastMes
         conn = c;
     }
 
+    /**
+     * Gets the rooms (and areas) this user currently occupies.
+     * @return an unmodifiable view of the user's rooms
+     */
+    public Set<ZugRoom> getRooms() { return Collections.unmodifiableSet(rooms); }
+
+    void addRoom(ZugRoom room) { rooms.add(room); }
+
+    void removeRoom(ZugRoom room) { rooms.remove(room); }
+
     /**
      * Gets the authentication source this user logged in with (if any).
      * @return an authentication source (such as ZugFields.AuthSource.lichess)
@@ -195,6 +208,14 @@ public class ZugUser extends Timeoutable implements JSONifier {  // long lastMes
         if (loggedIn && conn != null) conn.tell(t,json);
     }
 
+    /**
+     * Sends the user an already encoded message (typically as one of many recipients).
+     * @param msg the encoded message
+     */
+    public void tell(EncodedMessage msg) {
+        if (loggedIn && conn != null) conn.sendEncoded(msg);
+    }
+
     /**
      * Serializes the ZugUser (typically via toJSON()) to a Connection.
      * @param conn the Connection to update
@@ -204,7 +225,7 @@ public class ZugUser extends Timeoutable implements JSONifier {  // long lastMes
     }
 
     public boolean sameAddress(Connection conn) {
-        return !conn.getAddress().equals("127.0.0.1") && conn.getAddress().equals(getConn().getAddress());
+        return !"127.0.0.1".equals(conn.getOrigin()) && conn.isSameOrigin(getConn());
     }
 
     public boolean sameUser(ZugUser.UniqueName name, Connection conn) {
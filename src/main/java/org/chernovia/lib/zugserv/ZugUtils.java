@@ -1,11 +1,13 @@
 package org.chernovia.lib.zugserv;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.*;
@@ -32,6 +34,45 @@ public class ZugUtils {
         }
     }
 
+    /**
+     * Creates a streaming parser (for reading JSON without first building a tree).
+     * @param content the JSON-formatted content
+     * @return a new JsonParser (which the caller is responsible for closing)
+     * @throws IOException upon failure to create the parser
+     */
+    public static JsonParser newParser(String content) throws IOException {
+        return JSON_MAPPER.createParser(content);
+    }
+
+    /**
+     * Reads a JSON tree from the current token of a streaming parser.
+     * @param parser a JsonParser positioned at the start of a value
+     * @return the value (as a JSON tree)
+     * @throws IOException upon a malformed value
+     */
+    public static JsonNode readTree(JsonParser parser) throws IOException {
+        JsonNode node = JSON_MAPPER.readTree(parser);
+        return node == null ? nullNode() : node;
+    }
+
+    /**
+     * Reads a JSON tree from its UTF-8 encoding.
+     * @param bytes the encoded JSON
+     * @return the JSON tree
+     * @throws IOException upon malformed JSON
+     */
+    public static JsonNode readBytes(byte[] bytes) throws IOException {
+        return JSON_MAPPER.readTree(bytes);
+    }
+
+    public static byte[] writeBytes(JsonNode node) {
+        try {
+            return JSON_MAPPER.writeValueAsBytes(node);
+        } catch (JsonProcessingException e) { //shouldn't happen with tree nodes
+            throw new IllegalStateException(e);
+        }
+    }
+
     public static List<JSONifier> makeJSONifiers(List<Object> list) {
         return list.stream().map(item -> item instanceof JSONifier ? (JSONifier)item : null).toList();
     }
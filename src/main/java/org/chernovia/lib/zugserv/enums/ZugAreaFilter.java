@@ -0,0 +1,7 @@
+package org.chernovia.lib.zugserv.enums;
+
+/**
+ * Filters for area listings (see AreaIndex.toPredicate()).  Note that joinable only concerns access (i.e., public and
+ * without a password), not whether the area has started (see ZugArea.isOpen()).
+ */
+public enum ZugAreaFilter { joinable,running,space,guests }
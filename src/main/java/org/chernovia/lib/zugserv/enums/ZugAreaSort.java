@@ -0,0 +1,3 @@
+package org.chernovia.lib.zugserv.enums;
+
+public enum ZugAreaSort { title,newest,oldest }
@@ -5,9 +5,12 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.javalin.websocket.WsConnectContext;
 import org.chernovia.lib.zugserv.ConnAdapter;
+import org.chernovia.lib.zugserv.EncodedMessage;
 import org.chernovia.lib.zugserv.ZugFields;
 import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.java_websocket.framing.CloseFrame;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,7 +23,7 @@ public class JavalinConn extends ConnAdapter {
     public JavalinConn(WsConnectContext ctx) {
         this.ctx = ctx;
         setAddress(ctx.session.getRemoteAddress().toString());
-        setID(getAddress().hashCode());
+        setOrigin(getAddress());
     }
 
     public WsConnectContext getCtx() { return ctx; }
@@ -47,18 +50,49 @@ public class JavalinConn extends ConnAdapter {
 
     @Override
     public void tell(Enum<?> type, JsonNode data) { //logger.log(Level.INFO,"Sending: " + data);
-        ObjectNode node = mapper.createObjectNode();
-        node.put(ZugFields.TYPE, type.name()); node.set(ZugFields.DATA, data);
+        sendEncoded(EncodedMessage.encode(type,data));
+    }
+
+    /**
+     * Writes an encoded message.  Jetty only accepts Strings for text frames, so this uses the (once decoded and cached) envelope text.
+     * @param msg the encoded message envelope
+     */
+    @Override
+    protected void write(EncodedMessage msg) {
         try {
             if (ctx.session.isOpen()) {
-                ctx.send(node.toString());
+                ctx.send(msg.getText());
             }
-            else logger.log(Level.WARNING,"Sending to closed session: " + getAddress() + " ,data: " + data.toString());
+            else logger.log(Level.WARNING,"Sending to closed session: " + getAddress() + " ,data: " + msg.getData().toString());
         }
         catch (WebsocketNotConnectedException argh) {
-            logger.log(Level.WARNING,"Sending to unconnected session: " + getAddress() + " ,data: " + data.toString());
+            logger.log(Level.WARNING,"Sending to unconnected session: " + getAddress() + " ,data: " + msg.getData().toString());
         } catch (Exception e) {
-            logger.log(Level.WARNING,"Unknown error (" + e.getMessage() + ") at address: " + getAddress() + " ,data: " + data.toString());
+            logger.log(Level.WARNING,"Unknown error (" + e.getMessage() + ") at address: " + getAddress() + " ,data: " + msg.getData().toString());
+        }
+    }
+
+    /**
+     * Writes an encoded message via Jetty's asynchronous send, so that an OutboundQueue writer needn't wait for a slow client.
+     * @param msg the encoded message envelope
+     * @return a future completed once Jetty has written the frame (or failed to)
+     */
+    @Override
+    protected CompletableFuture<Void> writeAsync(EncodedMessage msg) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        if (!ctx.session.isOpen()) {
+            logger.log(Level.WARNING,"Sending to closed session: " + getAddress() + " ,data: " + msg.getData().toString());
+            written.complete(null);
+        }
+        else try {
+            ctx.session.getRemote().sendString(msg.getText(), new WriteCallback() {
+                @Override
+                public void writeFailed(Throwable e) { written.completeExceptionally(e); }
+                @Override
+                public void writeSuccess() { written.complete(null); }
+            });
         }
+        catch (Exception e) { written.completeExceptionally(e); }
+        return written;
     }
 }
@@ -1,13 +1,14 @@
 package org.chernovia.lib.zugserv.web;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 import io.javalin.websocket.WsContext;
 import org.chernovia.lib.zugserv.ConnListener;
 import org.chernovia.lib.zugserv.Connection;
+import org.chernovia.lib.zugserv.ConnectionRegistry;
 import org.chernovia.lib.zugserv.ServAdapter;
 import org.chernovia.lib.zugserv.ZugServ;
+import org.java_websocket.framing.CloseFrame;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -16,7 +17,6 @@ public class JavalinServ extends ServAdapter implements ZugServ {
 
     private final Javalin server;
     private static final Logger logger = Logger.getLogger(JavalinServ.class.getName());
-    private final Map<WsContext, Connection> connections = new HashMap<>();
     int port;
 
     /**
@@ -49,13 +49,20 @@ public class JavalinServ extends ServAdapter implements ZugServ {
                 .ws("/" + endpoint, ws -> {
                             ws.onConnect(ctx -> {
                                 System.out.println("Client connected: " + ctx.session.getRemoteAddress());
-                                if (getConn(ctx).isEmpty()) {
-                                    JavalinConn conn = new JavalinConn(ctx);
+                                JavalinConn conn = new JavalinConn(ctx);
+                                ConnectionRegistry.Admission admission = admit(ctx.sessionId(),conn,ctx.session.getRemoteAddress());
+                                if (admission == ConnectionRegistry.Admission.ADMITTED) {
+                                    initOutboundQueue(conn);
                                     logger.log(Level.INFO,"Incoming Connection at address: " + conn.getAddress());
-                                    connections.put(ctx,conn);
                                     getConnListener().connected(conn);
                                 }
-                                else logger.log(Level.INFO,"Already connected at address: " + ctx.session.getRemoteAddress());
+                                else if (admission == ConnectionRegistry.Admission.DUPLICATE) {
+                                    logger.log(Level.INFO,"Already connected at address: " + ctx.session.getRemoteAddress());
+                                }
+                                else {
+                                    logger.log(Level.WARNING,"Rejecting connection (" + admission + ") at address: " + ctx.session.getRemoteAddress());
+                                    ctx.closeSession(CloseFrame.TRY_AGAIN_LATER,"Connection refused: " + admission);
+                                }
                             });
                             ws.onMessage(ctx -> {
                                 String message = ctx.message();
@@ -66,7 +73,11 @@ public class JavalinServ extends ServAdapter implements ZugServ {
                             });
                             ws.onClose(ctx -> {
                                 logger.log(Level.INFO,"Client disconnected: " + ctx.session.getRemoteAddress());
-                                getConn(ctx).ifPresentOrElse(conn -> getConnListener().disconnected(conn),
+                                getConnectionRegistry().unregister(ctx.sessionId()).ifPresentOrElse(conn -> {
+                                            closeOutboundQueue(conn);
+                                            getConnListener().disconnected(conn);
+                                            conn.setStatus(Connection.Status.STATUS_DISCONNECTED);
+                                        },
                                         () -> logger.warning("Unknown client"));
                             });
                         }
@@ -74,24 +85,12 @@ public class JavalinServ extends ServAdapter implements ZugServ {
     }
 
     /**
-     * Gets the Connection associated with the provided Session id.
-     * @param id the Session id
+     * Gets the Connection associated with the provided WebSocket context.
+     * @param ctx the context
      * @return the Connection
      */
     public Optional<Connection> getConn(WsContext ctx) {
-        Connection conn = connections.get(ctx);
-        if (conn == null)  return Optional.empty(); else return Optional.of(conn);
-    }
-
-    /**
-     * Returns a list of all Connections.
-     * @param active returns only whatever the implmenting server considers "active" connections.
-     * @return a list of Connections, at least one for each connected user
-     */
-    @Override
-    public List<Connection> getAllConnections(boolean active) {
-        if (active) return connections.values().stream().filter(connection -> connection.getStatus().equals(Connection.Status.STATUS_OK)).toList();
-        else return connections.values().stream().toList();
+        return getConnectionRegistry().get(ctx.sessionId());
     }
 
     /**
@@ -119,20 +118,6 @@ public class JavalinServ extends ServAdapter implements ZugServ {
     @Override
     public ServType getType() { return ZugServ.ServType.WEBSOCK_DEFAULT; }
 
-    @Override
-    public void broadcast(Enum<?> type, String msg, boolean active) {
-        connections.values().forEach(conn -> {
-            if (active || conn.getStatus() == Connection.Status.STATUS_OK) conn.tell(type,msg);
-        });
-    }
-
-    @Override
-    public void broadcast(Enum<?> type, JsonNode msg, boolean active) {
-        connections.values().forEach(conn -> {
-            if (active || conn.getStatus() == Connection.Status.STATUS_OK) conn.tell(type,msg);
-        });
-    }
-
     public void handleShutdown(Context ctx) {
         String remoteAddress = ctx.req().getRemoteAddr();
         if (remoteAddress.equals("127.0.0.1") || remoteAddress.equals("::1")) {
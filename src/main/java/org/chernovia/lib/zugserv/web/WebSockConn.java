@@ -9,6 +9,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.chernovia.lib.zugserv.*;
 import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.TextFrame;
 
 public class WebSockConn extends ConnAdapter {
 	private static final Logger logger = Logger.getLogger(WebSockConn.class.getName());
@@ -19,7 +20,7 @@ public class WebSockConn extends ConnAdapter {
 	public WebSockConn(org.java_websocket.WebSocket sock) {
 		socket = sock;
 		setAddress(sock.getRemoteSocketAddress().getAddress().toString());
-		setID(getAddress().hashCode());
+		setOrigin(getAddress());
 	}
 	
 	public org.java_websocket.WebSocket getSock() { return socket; }
@@ -46,16 +47,26 @@ public class WebSockConn extends ConnAdapter {
 
 	@Override
 	public void tell(Enum<?> type, JsonNode data) { //logger.log(Level.INFO,"Sending: " + data);
-		ObjectNode node = mapper.createObjectNode();
-		node.put(ZugFields.TYPE, type.name()); node.set(ZugFields.DATA, data);
+		sendEncoded(EncodedMessage.encode(type,data));
+	}
+
+	/**
+	 * Writes an encoded message as a text frame wrapping the already encoded bytes (no per-recipient copying or re-encoding).
+	 * @param msg the encoded message envelope
+	 */
+	@Override
+	protected void write(EncodedMessage msg) {
 		try {
 			if (!socket.isClosed()) {
-				socket.send(node.toString());
+				TextFrame frame = new TextFrame();
+				frame.setFin(true);
+				frame.setPayload(msg.toByteBuffer());
+				socket.sendFrame(frame);
 			}
-			else logger.log(Level.WARNING,"Sending to closed socket: " + getAddress() + " ,data: " + data.toString());
+			else logger.log(Level.WARNING,"Sending to closed socket: " + getAddress() + " ,data: " + msg.getData().toString());
 		}
 		catch (WebsocketNotConnectedException argh) {
-			logger.log(Level.WARNING,"Sending to unconnected socket: " + getAddress() + " ,data: " + data.toString());
+			logger.log(Level.WARNING,"Sending to unconnected socket: " + getAddress() + " ,data: " + msg.getData().toString());
 		}
 	}
 }
@@ -5,8 +5,8 @@ import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import com.fasterxml.jackson.databind.JsonNode;
 import org.java_websocket.WebSocket;
+import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 import org.chernovia.lib.zugserv.*;
@@ -29,13 +29,20 @@ public class WebSockServ extends ServAdapter implements ZugServ {
 		 */
 		@Override
 		public void onOpen(org.java_websocket.WebSocket socket, ClientHandshake handshake) {
-			if (getConn(socket).isEmpty()) {
-				WebSockConn conn = new WebSockConn(socket);
+			WebSockConn conn = new WebSockConn(socket);
+			ConnectionRegistry.Admission admission = admit(socket,conn,socket.getRemoteSocketAddress());
+			if (admission == ConnectionRegistry.Admission.ADMITTED) {
+				initOutboundQueue(conn);
 				logger.log(Level.INFO,"Incoming Connection at address: " + conn.getSock().getRemoteSocketAddress());
-				connections.put(socket,conn); //connections.add(conn);
 				getConnListener().connected(conn);
 			}
-			else logger.log(Level.INFO,"Already connected at address: " + socket.getRemoteSocketAddress());
+			else if (admission == ConnectionRegistry.Admission.DUPLICATE) {
+				logger.log(Level.INFO,"Already connected at address: " + socket.getRemoteSocketAddress());
+			}
+			else {
+				logger.log(Level.WARNING,"Rejecting connection (" + admission + ") at address: " + socket.getRemoteSocketAddress());
+				socket.close(CloseFrame.TRY_AGAIN_LATER,"Connection refused: " + admission);
+			}
 		}
 
 		/**
@@ -47,10 +54,10 @@ public class WebSockServ extends ServAdapter implements ZugServ {
 		 */
 		@Override
 		public void onClose(org.java_websocket.WebSocket socket, int code, String reason, boolean remote) {
-			Connection conn = getConn(socket).orElse(null);
+			Connection conn = getConnectionRegistry().unregister(socket).orElse(null);
 			if (conn != null) {
 				logger.log(Level.INFO,"Closing Connection at address: " + conn.getAddress() + ", reason: " + reason);
-				connections.remove(socket);
+				closeOutboundQueue(conn);
 				getConnListener().disconnected(conn);
 				conn.setStatus(Connection.Status.STATUS_DISCONNECTED);
 			}
@@ -93,7 +100,6 @@ public class WebSockServ extends ServAdapter implements ZugServ {
 
 	private InnerServer server;
 	private static final Logger logger = Logger.getLogger(WebSockServ.class.getName());
-    private final Map<WebSocket, Connection> connections = new HashMap<>();
 
 	/**
 	 * Creates a new Web Socket Server.
@@ -102,7 +108,7 @@ public class WebSockServ extends ServAdapter implements ZugServ {
 	 */
     public WebSockServ(int p, ConnListener l) {
     	super(l);
-		InnerServer server = new InnerServer(p);
+		server = new InnerServer(p);
     }
 
 	/**
@@ -111,22 +117,10 @@ public class WebSockServ extends ServAdapter implements ZugServ {
 	 * @return the Connection
 	 */
 	public Optional<Connection> getConn(org.java_websocket.WebSocket sock) {
-		Connection conn = connections.get(sock);
-		if (conn == null)  return Optional.empty(); else return Optional.of(conn);
+		return getConnectionRegistry().get(sock);
     }
 
 
-	/**
-	 * Returns a list of all Connections.
-	 * @param active returns only whatever the implmenting server considers "active" connections.
-	 * @return a list of Connections, at least one for each connected user
-	 */
-	@Override
-	public List<Connection> getAllConnections(boolean active) {
-		if (active) return connections.values().stream().filter(connection -> connection.getStatus().equals(Connection.Status.STATUS_OK)).toList();
-		else return connections.values().stream().toList();
-	}
-
 	/**
 	 * Starts the server.
 	 */
@@ -153,18 +147,4 @@ public class WebSockServ extends ServAdapter implements ZugServ {
 	@Override
 	public ServType getType() { return ZugServ.ServType.WEBSOCK_DEFAULT; }
 
-	@Override
-	public void broadcast(Enum<?> type, String msg, boolean active) {
-		connections.values().forEach(conn -> {
-			if (active || conn.getStatus() == Connection.Status.STATUS_OK) conn.tell(type,msg);
-		});
-	}
-
-	@Override
-	public void broadcast(Enum<?> type, JsonNode msg, boolean active) {
-		connections.values().forEach(conn -> {
-			if (active || conn.getStatus() == Connection.Status.STATUS_OK) conn.tell(type,msg);
-		});
-	}
-
 }
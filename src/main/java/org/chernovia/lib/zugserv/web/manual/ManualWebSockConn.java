@@ -1,160 +1,258 @@
 package org.chernovia.lib.zugserv.web.manual;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.util.Arrays;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.Base64;
-import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import org.chernovia.lib.zugserv.web.*;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.chernovia.lib.zugserv.*;
 
-public class ManualWebSockConn extends ConnAdapter implements Runnable {
+/**
+ * A WebSocket Connection over a non-blocking SocketChannel, driven by one of its server's SelectorLoops.
+ * Incoming bytes are read into the loop's shared buffer, and only an incomplete handshake or frame is copied aside,
+ * so idle Connections hold neither a thread nor a read buffer.  Decoded messages are handed to the ConnListener via the
+ * Connection's serial context (see getSerialExecutor()), so they are handled in order, but off the loop thread.
+ * Outgoing frames are written directly when possible, and otherwise queued until the channel is writable.
+ */
+public class ManualWebSockConn extends ConnAdapter {
 	public static final Logger logger = Logger.getLogger(ManualWebSockConn.class.getName());
 	public static final ObjectMapper mapper = new ObjectMapper();
-	private final Socket socket;
+	public static final int MAX_HANDSHAKE = 8 * 1024, MAX_MESSAGE = 1024 * 1024, MAX_PENDING_BYTES = 4 * 1024 * 1024;
+	private static final Pattern KEY_PATTERN = Pattern.compile("(?im)^Sec-WebSocket-Key:\\s*(\\S+)");
+	private static final byte[] HEADER_END = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+	private final SocketChannel channel;
+	private final SelectorLoop loop;
+	private final ManualWebSockServ serv;
+	private final WebSockFrameCodec codec = new WebSockFrameCodec(MAX_MESSAGE, true);
+	private final WebSockFrameCodec.FrameListener frameListener = new FrameHandler();
+	private final ArrayDeque<ByteBuffer[]> pending = new ArrayDeque<>();
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private volatile SelectionKey key;
+	private volatile boolean handshaken = false;
+	private boolean closeSent = false; //guarded by pending
+	private ByteBuffer partial = null; //unprocessed input, only touched on the loop thread
+	private long pendingBytes = 0;
 	private String address;
-	InputStream in; BufferedReader reader;
-	OutputStream out; Scanner scanner;
-	ConnListener listener;
-	boolean noshake = true;
-	boolean running = false;
-	
-	public ManualWebSockConn(Socket sock, ConnListener l) {
-		socket = sock; listener = l;
-		address = sock.getInetAddress().toString();
-		setID(getAddress().hashCode());
-		try { 
-			in = sock.getInputStream(); out = sock.getOutputStream(); 
-			reader = new BufferedReader(new InputStreamReader(in));
-		}
-		catch (IOException argh) { argh.printStackTrace(); }
-	}
-	
-	public boolean handshake() { if (noshake) return true;
+
+	ManualWebSockConn(SocketChannel channel, SelectorLoop loop, ManualWebSockServ serv) throws IOException {
+		this.channel = channel; this.loop = loop; this.serv = serv;
+		setServ(serv);
+		address = channel.getRemoteAddress() instanceof InetSocketAddress inet ?
+				String.valueOf(inet.getAddress()) : String.valueOf(channel.getRemoteAddress());
+		setOrigin(address);
+	}
+
+	public SocketChannel getChannel() { return channel; }
+
+	boolean isHandshaken() { return handshaken; }
+
+	/**
+	 * Registers the channel with its SelectorLoop (called from the loop thread).
+	 */
+	void register() {
+		try {
+			key = loop.register(channel, SelectionKey.OP_READ, this::ready);
+			synchronized (pending) { if (!pending.isEmpty()) setWriteInterest(true); }
+		}
+		catch (IOException e) { close("Registration failed: " + e.getMessage()); }
+	}
+
+	private void ready(SelectionKey key) {
+		if (key.isReadable()) read();
+		if (key.isValid() && key.isWritable()) {
+			synchronized (pending) { flush(); }
+		}
+	}
+
+	private void read() {
+		ByteBuffer buf = loop.getReadBuffer();
+		try {
+			int n = channel.read(buf);
+			if (n < 0) { close("End of stream"); return; }
+			if (n == 0) return;
+		}
+		catch (IOException e) { close(e.getMessage()); return; }
+		buf.flip();
+		ByteBuffer in = buf;
+		if (partial != null) {
+			if (partial.remaining() < buf.remaining()) {
+				ByteBuffer grown = ByteBuffer.allocate(partial.position() + Math.max(buf.remaining(), partial.capacity()));
+				partial = grown.put(partial.flip());
+			}
+			in = partial.put(buf).flip();
+		}
+		process(in);
+		if (!in.hasRemaining() || closed.get()) partial = null;
+		else if (in == partial) partial.compact();
+		else partial = ByteBuffer.allocate(Math.max(in.remaining(), 1024)).put(in);
+	}
+
+	private void process(ByteBuffer in) {
+		if (!handshaken) {
+			int end = indexOf(in, HEADER_END);
+			if (end < 0) {
+				if (in.remaining() > MAX_HANDSHAKE) close("Handshake too long");
+				return;
+			}
+			byte[] request = new byte[end + HEADER_END.length - in.position()];
+			in.get(request);
+			if (!handshake(new String(request, StandardCharsets.US_ASCII))) return;
+		}
+		try { codec.decode(in, frameListener); }
+		catch (WebSockFrameCodec.ProtocolException e) { close(e.getCloseCode(), e.getMessage()); }
+	}
+
+	/**
+	 * Passes text messages on to the server's ConnListener, and handles control frames (binary messages are ignored).
+	 */
+	private class FrameHandler implements WebSockFrameCodec.FrameListener {
+		@Override
+		public void onText(String text) {
+			if (!closed.get()) getSerialExecutor().execute(() -> {
+				if (!closed.get()) serv.getConnListener().newMsg(ManualWebSockConn.this, text);
+			});
+		}
+
+		@Override
+		public void onBinary(ByteBuffer data) {
+			logger.log(Level.FINE,"Ignoring binary message from: " + getAddress());
+		}
+
+		@Override
+		public void onPing(ByteBuffer payload) { //the payload is only a view of the input, so must be copied
+			send(WebSockFrameCodec.frame(WebSockFrameCodec.OP_PONG, ByteBuffer.allocate(payload.remaining()).put(payload).flip()));
+		}
+
+		@Override
+		public void onPong(ByteBuffer payload) {}
+
+		@Override
+		public void onClose(int code, String reason) {
+			close(code == WebSockFrameCodec.CLOSE_NO_STATUS ? WebSockFrameCodec.CLOSE_NORMAL : code, "Closed by client: " + reason);
+		}
+	}
+
+	private boolean handshake(String request) {
+		Matcher match = KEY_PATTERN.matcher(request);
+		if (!request.startsWith("GET") || !match.find()) {
+			close("Bad Handshake"); return false;
+		}
 		try {
-			scanner = new Scanner(in, StandardCharsets.UTF_8);
-			String data = scanner.useDelimiter("\\r\\n\\r\\n").next();
-			Matcher get = Pattern.compile("^GET").matcher(data);
-			if (get.find()) {
-				Matcher match = Pattern.compile("Sec-WebSocket-Key: (.*)").matcher(data);
-				match.find();
-				byte[] response = ("HTTP/1.1 101 Switching Protocols\r\n"
+			String accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1")
+					.digest((match.group(1) + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.UTF_8)));
+			send(ByteBuffer.wrap(("HTTP/1.1 101 Switching Protocols\r\n"
 					+ "Connection: Upgrade\r\n"
 					+ "Upgrade: websocket\r\n"
-					+ "Sec-WebSocket-Accept: "
-					+ Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1").digest((match.group(1) 
-					+ "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.UTF_8)))
-					+ "\r\n\r\n").getBytes(StandardCharsets.UTF_8);
-				out.write(response, 0, response.length);
-				return true;
+					+ "Sec-WebSocket-Accept: " + accept
+					+ "\r\n\r\n").getBytes(StandardCharsets.US_ASCII)));
+		}
+		catch (NoSuchAlgorithmException e) {
+			close(e.getMessage()); return false;
+		}
+		handshaken = true;
+		getSerialExecutor().execute(() -> serv.getConnListener().connected(this));
+		return true;
+	}
+
+	private static int indexOf(ByteBuffer buf, byte[] target) {
+		for (int i = buf.position(); i <= buf.limit() - target.length; i++) {
+			int j = 0;
+			while (j < target.length && buf.get(i + j) == target[j]) j++;
+			if (j == target.length) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Sends a frame (or raw bytes, during the handshake), writing directly to the channel if nothing is already queued.
+	 * @param data the buffers to be written in order, via a gathering write
+	 */
+	private void send(ByteBuffer... data) {
+		boolean overflow = false;
+		synchronized (pending) {
+			if (closed.get() || closeSent) return;
+			long size = 0;
+			for (ByteBuffer buf : data) size += buf.remaining();
+			if (pendingBytes + size > MAX_PENDING_BYTES) overflow = true;
+			else {
+				pendingBytes += size;
+				pending.add(data);
+				if (pending.size() == 1) flush();
 			}
 		}
-		catch (Exception argh) { argh.printStackTrace(); }
-		return false;
-	}
-	
-	public String decode(byte[] data) throws IllegalArgumentException {
-	    int datalength = data[1] & 127;
-	    int indexFirstMask = 2;
-	    if (datalength == 126) {
-	        indexFirstMask = 4;
-	    } else if (datalength == 127) {
-	        indexFirstMask = 10;
-	    }
-	    byte[] masks = Arrays.copyOfRange(data, indexFirstMask, indexFirstMask + 4); 
-	    int i = indexFirstMask + 4;
-	    int index = 0;
-	    StringBuilder output = new StringBuilder();
-	    while (i < data.length) {
-	        output.append((char) (data[i++] ^ masks[index++ % 4]));
-	    }
-	    return output.toString();
-	}
-	
-	public byte[] encode(String mess) {
-	    byte[] rawData = mess.getBytes();
-
-	    int frameCount;
-	    byte[] frame = new byte[10];
-
-	    frame[0] = (byte) 129;
-
-	    if (rawData.length <= 125) {
-	        frame[1] = (byte) rawData.length;
-	        frameCount = 2;
-	    } else if (rawData.length >= 126 && rawData.length <= 65535) {
-	        frame[1] = (byte) 126;
-	        int len = rawData.length;
-	        frame[2] = (byte)((len >> 8 ) & (byte)255);
-	        frame[3] = (byte)(len & (byte)255); 
-	        frameCount = 4;
-	    } else {
-	        frame[1] = (byte) 127;
-	        int len = rawData.length;
-	        frame[2] = (byte)((len >> 56 ) & (byte)255);
-	        frame[3] = (byte)((len >> 48 ) & (byte)255);
-	        frame[4] = (byte)((len >> 40 ) & (byte)255);
-	        frame[5] = (byte)((len >> 32 ) & (byte)255);
-	        frame[6] = (byte)((len >> 24 ) & (byte)255);
-	        frame[7] = (byte)((len >> 16 ) & (byte)255);
-	        frame[8] = (byte)((len >> 8 ) & (byte)255);
-	        frame[9] = (byte)(len & (byte)255);
-	        frameCount = 10;
-	    }
-
-	    int bLength = frameCount + rawData.length;
-
-	    byte[] reply = new byte[bLength];
-
-	    int bLim = 0;
-	    for(int i=0; i<frameCount;i++){
-	        reply[bLim] = frame[i];
-	        bLim++;
-	    }
-		for (byte rawDatum : rawData) {
-			reply[bLim] = rawDatum;
-			bLim++;
-		}
-	    return reply;
-	}
-	
-	@Override
-	public void run() {
-		running = true;
-		if (handshake()) listener.connected(this);
-		else {
-			close("Bad Handshake");
-		}
-		while (running) {
-			try {
-				if (in.available() > 0)
-					listener.newMsg(this, decode(in.readNBytes(in.available())));
-			} catch (IOException | IllegalArgumentException e) {
-				close(e.getMessage());
+		if (overflow) close(WebSockFrameCodec.CLOSE_GOING_AWAY, "Write buffer overflow");
+	}
+
+	private void flush() { //called while synchronized on pending
+		try {
+			while (!pending.isEmpty()) {
+				ByteBuffer[] data = pending.peek();
+				pendingBytes -= channel.write(data);
+				if (data[data.length - 1].hasRemaining()) {
+					setWriteInterest(true); return;
+				}
+				pending.poll();
 			}
+			setWriteInterest(false);
+		}
+		catch (IOException e) {
+			pending.clear(); pendingBytes = 0;
+			loop.execute(() -> closeChannel(e.getMessage()));
 		}
-		listener.disconnected(this);
+	}
+
+	private void setWriteInterest(boolean write) {
+		SelectionKey k = key;
+		if (k == null || !k.isValid()) return;
+		if (write) {
+			if ((k.interestOps() & SelectionKey.OP_WRITE) == 0) {
+				k.interestOpsOr(SelectionKey.OP_WRITE); loop.wakeup();
+			}
+		}
+		else if ((k.interestOps() & SelectionKey.OP_WRITE) != 0) k.interestOpsAnd(~SelectionKey.OP_WRITE);
 	}
 
 	@Override
-	public void close(String reason) {
-		logger.log(Level.WARNING,"Closing socket: " + reason);
-		try { socket.close(); } catch (IOException e) { e.printStackTrace(); }
-		running = false;
+	public void close(String reason) { close(WebSockFrameCodec.CLOSE_NORMAL, reason); }
+
+	/**
+	 * Sends a close frame (if the handshake is complete and the channel still writable) and closes the channel.
+	 * @param code the close code
+	 * @param reason the reason
+	 */
+	public void close(int code, String reason) {
+		if (handshaken && !closed.get()) synchronized (pending) { //bypasses send()'s checks, e.g., upon overflow
+			if (!closeSent) {
+				closeSent = true;
+				pending.add(WebSockFrameCodec.closeFrame(code, reason));
+				if (pending.size() == 1) flush();
+			}
+		}
+		closeChannel(reason);
+	}
+
+	private void closeChannel(String reason) {
+		if (!closed.compareAndSet(false, true)) return;
+		logger.log(Level.INFO,"Closing socket: " + reason);
+		loop.execute(() -> {
+			SelectionKey k = key;
+			if (k != null) k.cancel();
+			try { channel.close(); } catch (IOException e) { logger.log(Level.WARNING,"Error closing socket: " + e.getMessage()); }
+			serv.closed(this);
+		});
 	}
 
 	@Override
@@ -167,16 +265,20 @@ public class ManualWebSockConn extends ConnAdapter implements Runnable {
 
 	@Override
 	public void tell(Enum<?> type, String msg) {
-		ObjectNode node = mapper.createObjectNode(); node.put("msg", msg); tell(type,node);			
+		ObjectNode node = mapper.createObjectNode(); node.put(ZugFields.MSG, msg); tell(type,node);
 	}
 
 	@Override
 	public void tell(Enum<?> type, JsonNode msg) { //logger.log(Level.INFO,"Sending: " + msg);
-		ObjectNode node = mapper.createObjectNode();
-		node.put("type", type.name()); node.set("data", msg);
-		if (!socket.isClosed()) {
-			try { out.write(encode(node.toString())); } 
-			catch (IOException e) { close(e.getMessage()); }
-		}
+		sendEncoded(EncodedMessage.encode(type,msg));
+	}
+
+	/**
+	 * Writes an encoded message as a text frame, i.e., a header gathered with a view of the shared encoded bytes.
+	 * @param msg the encoded message envelope
+	 */
+	@Override
+	protected void write(EncodedMessage msg) {
+		if (handshaken) send(WebSockFrameCodec.frame(WebSockFrameCodec.OP_TEXT, msg.toByteBuffer()));
 	}
 }
@@ -1,107 +1,130 @@
 package org.chernovia.lib.zugserv.web.manual;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.Vector;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import org.chernovia.lib.zugserv.*;
 import org.chernovia.lib.zugserv.web.*;
 
-public class ManualWebSockServ implements ZugServ, Runnable {
-	
-	public static final Logger logger = Logger.getLogger(WebSockServ.class.getName());
-	int port;
-    public Vector<Connection> connections = new Vector<>();
-    ServerSocket serverSocket; boolean running = false;
-    ConnListener connListener;
-    
-    public ManualWebSockServ(int p, ConnListener l) {
-    	port = p; connListener = l;
-    }
-    
-	@Override
-    public void run() {
-		running = true;
-        try { serverSocket = new ServerSocket(port); } 
-        catch (IOException e) { logger.log(Level.SEVERE,"Error starting on port " + port); return; }
-		if (SSLServ.logAddress(logger, port)) return;
-
-		while(running) {
-            try {
-                Socket newSocket = serverSocket.accept();
-                ManualWebSockConn conn = new ManualWebSockConn(newSocket,connListener);
-                logger.log(Level.INFO,"Incoming Connection at address: " + conn.getAddress());
-                connections.add(conn);
-                new Thread(conn).start();
-            } catch (IOException e) {
-                logger.log(Level.WARNING,"IO EXCEPTION OCCURED WHEN LISTENING FOR CHAT CLIENTS!");
-                e.printStackTrace();
-            }
-        }
-    }
-	
-	@Override
-	public ConnListener getConnListener() { return connListener; }
-
-	@Override
-	public Vector<Connection> getAllConnections(boolean active) {
-		return connections;
-	}
-
-	@Override
-	public void startSrv() {
-		new Thread(this).start();
-	}
+/**
+ * A WebSocket server built directly on NIO: a few SelectorLoops (the first of which also accepts new connections)
+ * each multiplex any number of non-blocking Connections, so idle Connections cost neither threads nor CPU.
+ */
+public class ManualWebSockServ extends ServAdapter implements ZugServ {
 
-	@Override
-	public ServType getType() { return ZugServ.ServType.WEBSOCK_DEFAULT; }
-
-	@Override
-	public void broadcast(Enum<?> type, String msg, boolean active) {
+	public static final Logger logger = Logger.getLogger(WebSockServ.class.getName());
+	private static final byte[] UNAVAILABLE = "HTTP/1.1 503 Service Unavailable\r\nConnection: close\r\n\r\n"
+			.getBytes(StandardCharsets.US_ASCII);
+	private final int port;
+	private final int loopCount;
+	private SelectorLoop[] loops = new SelectorLoop[0];
+	private ServerSocketChannel serverChannel;
+	private int nextLoop = 0; //only used by the accepting loop
+
+	/**
+	 * Creates a new server with one SelectorLoop per two available processors.
+	 * @param p the port for incoming connections
+	 * @param l the connection listener (see ConnListener)
+	 */
+	public ManualWebSockServ(int p, ConnListener l) {
+		this(p, l, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
 	}
 
-	@Override
-	public void broadcast(Enum<?> type, JsonNode msg, boolean active) {
+	/**
+	 * Creates a new server.
+	 * @param p the port for incoming connections
+	 * @param l the connection listener (see ConnListener)
+	 * @param loops the number of SelectorLoops (i.e., threads)
+	 */
+	public ManualWebSockServ(int p, ConnListener l, int loops) {
+		super(l);
+		port = p; loopCount = Math.max(1, loops);
 	}
 
 	@Override
-	public int getMaxConnections() {
-		// TODO Auto-generated method stub
-		return 0;
+	public synchronized void startSrv() {
+		if (isRunning()) return;
+		try {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(port), 1024);
+			serverChannel.configureBlocking(false);
+			loops = new SelectorLoop[loopCount];
+			for (int i = 0; i < loopCount; i++) loops[i] = new SelectorLoop("ZugSelector-" + i);
+			loops[0].execute(() -> {
+				try { loops[0].register(serverChannel, SelectionKey.OP_ACCEPT, key -> accept()); }
+				catch (IOException e) { logger.log(Level.SEVERE,"Error accepting on port " + port + ": " + e.getMessage()); }
+			});
+			for (SelectorLoop loop : loops) loop.start();
+			setRunning(true);
+			SSLServ.logAddress(logger, port);
+		}
+		catch (IOException e) {
+			logger.log(Level.SEVERE,"Error starting on port " + port + ": " + e.getMessage());
+			stopSrv();
+		}
 	}
 
-	@Override
-	public void setMaxConnections(int c) {
-		// TODO Auto-generated method stub
-		
+	private void accept() {
+		SocketChannel channel;
+		try {
+			while ((channel = serverChannel.accept()) != null) {
+				try {
+					channel.configureBlocking(false);
+					channel.socket().setTcpNoDelay(true);
+					SelectorLoop loop = loops[Math.floorMod(nextLoop++, loops.length)];
+					ManualWebSockConn conn = new ManualWebSockConn(channel, loop, this);
+					ConnectionRegistry.Admission admission = admit(channel, conn, channel.getRemoteAddress());
+					if (admission == ConnectionRegistry.Admission.ADMITTED) {
+						initOutboundQueue(conn);
+						logger.log(Level.INFO,"Incoming Connection at address: " + conn.getAddress());
+						loop.execute(conn::register);
+					}
+					else {
+						logger.log(Level.WARNING,"Rejecting connection (" + admission + ") at address: " + conn.getAddress());
+						channel.write(ByteBuffer.wrap(UNAVAILABLE));
+						channel.close();
+					}
+				}
+				catch (IOException e) {
+					logger.log(Level.WARNING,"Error accepting connection: " + e.getMessage());
+					channel.close();
+				}
+			}
+		}
+		catch (IOException e) {
+			logger.log(Level.WARNING,"Error listening on port " + port + ": " + e.getMessage());
+		}
 	}
 
-	@Override
-	public void stopSrv() {
-		// TODO Auto-generated method stub
-		
+	/**
+	 * Cleans up after a Connection's channel has closed (called from its SelectorLoop).
+	 * @param conn the closed Connection
+	 */
+	void closed(ManualWebSockConn conn) {
+		getConnectionRegistry().unregister(conn.getChannel()).ifPresent(c -> {
+			closeOutboundQueue(conn);
+			conn.setStatus(Connection.Status.STATUS_DISCONNECTED);
+			if (conn.isHandshaken()) conn.getSerialExecutor().execute(() -> getConnListener().disconnected(conn)); //after any pending messages
+		});
 	}
 
 	@Override
-	public boolean isRunning() {
-		// TODO Auto-generated method stub
-		return false;
+	public synchronized void stopSrv() {
+		getConnectionRegistry().forEach(false, conn -> conn.close("Server shutdown"));
+		try { if (serverChannel != null) serverChannel.close(); }
+		catch (IOException e) { logger.log(Level.WARNING,"Error closing server: " + e.getMessage()); }
+		for (SelectorLoop loop : loops) loop.execute(loop::shutdown);
+		setRunning(false);
 	}
 
 	@Override
-	public void setPause(boolean paused) {
-		// TODO Auto-generated method stub
-		
-	}
-
-	@Override
-	public boolean isPaused() {
-		// TODO Auto-generated method stub
-		return false;
-	}
+	public ServType getType() { return ZugServ.ServType.WEBSOCK_DEFAULT; }
 
 }
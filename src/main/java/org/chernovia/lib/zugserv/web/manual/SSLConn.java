@@ -29,6 +29,7 @@ public class SSLConn extends ConnAdapter implements Runnable {
 	
 	public SSLConn(SSLSocket sock, ConnListener l) {
 		socket = sock; listener = l; address = sock.getInetAddress().toString(); //setID?
+		setOrigin(address);
 		try { 
 			in = sock.getInputStream(); out = sock.getOutputStream(); 
 			reader = new BufferedReader(new InputStreamReader(in));
@@ -0,0 +1,105 @@
+package org.chernovia.lib.zugserv.web.manual;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A SelectorLoop is a single thread multiplexing any number of non-blocking channels via a Selector.
+ * Each registered channel's attachment is a callback invoked with its SelectionKey whenever it is ready.
+ * Tasks (e.g., channel registrations) may be submitted from any thread, and are run on the loop thread.
+ */
+class SelectorLoop implements Runnable {
+	static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final Logger logger = Logger.getLogger(SelectorLoop.class.getName());
+	private final Selector selector;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	SelectorLoop(String name) throws IOException {
+		selector = Selector.open();
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+	}
+
+	void start() { thread.start(); }
+
+	void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	boolean inLoop() { return Thread.currentThread() == thread; }
+
+	/**
+	 * Runs a task on the loop thread (immediately, if already on it).
+	 * @param task the task
+	 */
+	void execute(Runnable task) {
+		if (inLoop()) task.run();
+		else {
+			tasks.add(task);
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Wakes the loop if called from another thread (e.g., so a changed interest set takes effect).
+	 */
+	void wakeup() {
+		if (!inLoop()) selector.wakeup();
+	}
+
+	/**
+	 * Registers a channel (from the loop thread).
+	 * @param channel a non-blocking channel
+	 * @param ops the initial interest set
+	 * @param handler called with the channel's key whenever it is ready
+	 * @return the SelectionKey
+	 * @throws ClosedChannelException if the channel is closed
+	 */
+	SelectionKey register(SelectableChannel channel, int ops, Consumer<SelectionKey> handler) throws ClosedChannelException {
+		return channel.register(selector, ops, handler);
+	}
+
+	/**
+	 * Gets the loop's (direct) read buffer, shared by all of its channels since reads only occur on the loop thread.
+	 * @return the cleared read buffer
+	 */
+	ByteBuffer getReadBuffer() { return readBuffer.clear(); }
+
+	public int getChannelCount() { return selector.keys().size(); }
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void run() {
+		while (running) {
+			try {
+				selector.select();
+				for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) task.run();
+				for (SelectionKey key : selector.selectedKeys()) {
+					if (key.isValid()) ((Consumer<SelectionKey>) key.attachment()).accept(key);
+				}
+				selector.selectedKeys().clear();
+			}
+			catch (Exception e) {
+				logger.log(Level.WARNING, "Selector error: " + e.getMessage());
+			}
+		}
+		try {
+			for (SelectionKey key : selector.keys()) key.channel().close();
+			selector.close();
+		}
+		catch (IOException e) { logger.log(Level.WARNING, "Error closing selector: " + e.getMessage()); }
+	}
+}
@@ -0,0 +1,202 @@
+package org.chernovia.lib.zugserv.web.manual;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A WebSockFrameCodec decodes a stream of (RFC 6455) WebSocket frames and encodes outgoing ones.
+ * Decoding unmasks payloads in place and hands them on as views of the input buffer (so they are only valid during the
+ * callback), copying only the fragments of a fragmented message.  Encoding produces just a header, to be written
+ * along with the (unmasked, uncopied) payload via a gathering write.
+ * Each codec holds the fragmentation state of a single stream, so is not thread-safe.
+ */
+public class WebSockFrameCodec {
+	public static final int OP_CONTINUATION = 0x0, OP_TEXT = 0x1, OP_BINARY = 0x2, OP_CLOSE = 0x8, OP_PING = 0x9, OP_PONG = 0xA;
+	public static final int CLOSE_NORMAL = 1000, CLOSE_GOING_AWAY = 1001, CLOSE_PROTOCOL_ERROR = 1002, CLOSE_NO_STATUS = 1005,
+			CLOSE_BAD_DATA = 1007, CLOSE_TOO_BIG = 1009;
+	private static final int MAX_CONTROL_PAYLOAD = 125;
+
+	/**
+	 * Receives decoded messages and control frames.  Payload buffers are only valid until the callback returns.
+	 */
+	public interface FrameListener {
+		void onText(String text);
+		void onBinary(ByteBuffer data);
+		void onPing(ByteBuffer payload);
+		void onPong(ByteBuffer payload);
+		void onClose(int code, String reason);
+	}
+
+	/**
+	 * Indicates a violation of the protocol, along with the close code with which to fail the connection.
+	 */
+	public static class ProtocolException extends IOException {
+		private static final long serialVersionUID = 1L;
+		private final int closeCode;
+		public ProtocolException(int closeCode, String msg) {
+			super(msg); this.closeCode = closeCode;
+		}
+		public int getCloseCode() { return closeCode; }
+	}
+
+	private final int maxMessage;
+	private final boolean requireMask;
+	private final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+	private ByteBuffer fragments = null;
+	private int fragmentOpcode = -1;
+
+	/**
+	 * Creates a codec.
+	 * @param maxMessage the maximum size (in bytes) of a frame or reassembled message
+	 * @param requireMask true if incoming frames must be masked (i.e., on the server side)
+	 */
+	public WebSockFrameCodec(int maxMessage, boolean requireMask) {
+		this.maxMessage = maxMessage; this.requireMask = requireMask;
+	}
+
+	/**
+	 * Decodes each complete frame from the buffer's position, leaving the position at the start of any incomplete frame.
+	 * The buffer must be writable, since masked payloads are unmasked in place, and in (the default) big-endian order.
+	 * @param in the input buffer (in read mode)
+	 * @param listener receives the decoded messages
+	 * @throws ProtocolException upon a malformed or oversized frame or message
+	 */
+	public void decode(ByteBuffer in, FrameListener listener) throws ProtocolException {
+		while (in.remaining() >= 2) {
+			int p = in.position();
+			int b0 = in.get(p) & 0xFF, b1 = in.get(p + 1) & 0xFF;
+			boolean fin = (b0 & 0x80) != 0, masked = (b1 & 0x80) != 0;
+			int opcode = b0 & 0x0F, len7 = b1 & 0x7F, header = 2;
+			long length = len7;
+			if (len7 == 126) {
+				if (in.remaining() < 4) return;
+				length = in.getShort(p + 2) & 0xFFFF; header = 4;
+			}
+			else if (len7 == 127) {
+				if (in.remaining() < 10) return;
+				length = in.getLong(p + 2); header = 10;
+			}
+			if ((b0 & 0x70) != 0) throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Reserved bits set");
+			if (requireMask && !masked) throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Unmasked frame");
+			if (opcode >= OP_CLOSE) {
+				if (opcode > OP_PONG) throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Unknown opcode: " + opcode);
+				if (!fin || length > MAX_CONTROL_PAYLOAD) throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Bad control frame");
+			}
+			else if (opcode > OP_BINARY) throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Unknown opcode: " + opcode);
+			if (length < 0 || length > maxMessage) throw new ProtocolException(CLOSE_TOO_BIG, "Frame too large: " + length);
+			int maskAt = p + header;
+			if (masked) header += 4;
+			if (in.remaining() < header + length) return;
+			int start = p + header, end = start + (int)length;
+			if (masked) unmask(in, in.getInt(maskAt), start, end);
+			ByteBuffer payload = in.duplicate().limit(end).position(start);
+			in.position(end);
+			handleFrame(opcode, fin, payload, listener);
+		}
+	}
+
+	private void handleFrame(int opcode, boolean fin, ByteBuffer payload, FrameListener listener) throws ProtocolException {
+		switch (opcode) {
+			case OP_PING -> listener.onPing(payload);
+			case OP_PONG -> listener.onPong(payload);
+			case OP_CLOSE -> {
+				if (payload.remaining() == 1) throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Bad close frame");
+				int code = payload.remaining() >= 2 ? payload.getShort() & 0xFFFF : CLOSE_NO_STATUS;
+				listener.onClose(code, toText(payload));
+			}
+			case OP_CONTINUATION -> {
+				if (fragmentOpcode < 0) throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Unexpected continuation frame");
+				appendFragment(payload);
+				if (fin) {
+					ByteBuffer message = fragments.flip();
+					int messageOpcode = fragmentOpcode;
+					fragments = null; fragmentOpcode = -1;
+					deliver(messageOpcode, message, listener);
+				}
+			}
+			default -> { //text or binary
+				if (fragmentOpcode >= 0) throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Expected continuation frame");
+				if (fin) deliver(opcode, payload, listener);
+				else {
+					fragmentOpcode = opcode;
+					appendFragment(payload);
+				}
+			}
+		}
+	}
+
+	private void deliver(int opcode, ByteBuffer payload, FrameListener listener) throws ProtocolException {
+		if (opcode == OP_TEXT) listener.onText(toText(payload)); else listener.onBinary(payload);
+	}
+
+	private void appendFragment(ByteBuffer payload) throws ProtocolException {
+		int size = (fragments == null ? 0 : fragments.position()) + payload.remaining();
+		if (size > maxMessage) throw new ProtocolException(CLOSE_TOO_BIG, "Message too large: " + size);
+		if (fragments == null || fragments.remaining() < payload.remaining()) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.min(maxMessage, Math.max(size, (fragments == null ? 0 : fragments.capacity()) * 2)));
+			if (fragments != null) grown.put(fragments.flip());
+			fragments = grown;
+		}
+		fragments.put(payload);
+	}
+
+	private String toText(ByteBuffer payload) throws ProtocolException {
+		if (!payload.hasRemaining()) return "";
+		try { return utf8.reset().decode(payload).toString(); }
+		catch (CharacterCodingException e) { throw new ProtocolException(CLOSE_BAD_DATA, "Invalid UTF-8"); }
+	}
+
+	/**
+	 * XORs a payload with its masking key in place, eight bytes at a time.
+	 */
+	private static void unmask(ByteBuffer buf, int mask, int start, int end) {
+		long mask8 = ((long)mask << 32) | (mask & 0xFFFFFFFFL);
+		int i = start;
+		for (; i + 8 <= end; i += 8) buf.putLong(i, buf.getLong(i) ^ mask8);
+		for (; i < end; i++) buf.put(i, (byte)(buf.get(i) ^ (mask >>> (24 - 8 * ((i - start) & 3)))));
+	}
+
+	/**
+	 * Creates an (unmasked, i.e., server to client) frame header.
+	 * @param opcode the opcode
+	 * @param length the payload length
+	 * @param fin true if the final frame of a message
+	 * @return the header, ready for writing
+	 */
+	public static ByteBuffer header(int opcode, int length, boolean fin) {
+		ByteBuffer header = ByteBuffer.allocate(length <= 125 ? 2 : length <= 0xFFFF ? 4 : 10);
+		header.put((byte)((fin ? 0x80 : 0) | opcode));
+		if (length <= 125) header.put((byte)length);
+		else if (length <= 0xFFFF) header.put((byte)126).putShort((short)length);
+		else header.put((byte)127).putLong(length);
+		return header.flip();
+	}
+
+	/**
+	 * Creates a complete (unfragmented) frame as a header and the given payload, for a gathering write.
+	 * @param opcode the opcode
+	 * @param payload the payload (which is not copied)
+	 * @return the header and payload buffers
+	 */
+	public static ByteBuffer[] frame(int opcode, ByteBuffer payload) {
+		return new ByteBuffer[] { header(opcode, payload.remaining(), true), payload };
+	}
+
+	/**
+	 * Creates a close frame.
+	 * @param code the close code
+	 * @param reason the reason (truncated, if need be, to fit a control frame)
+	 * @return the header and payload buffers
+	 */
+	public static ByteBuffer[] closeFrame(int code, String reason) {
+		byte[] text = reason == null ? new byte[0] : reason.getBytes(StandardCharsets.UTF_8);
+		int length = Math.min(text.length, MAX_CONTROL_PAYLOAD - 2);
+		while (length > 0 && length < text.length && (text[length] & 0xC0) == 0x80) length--; //don't split a character
+		return frame(OP_CLOSE, ByteBuffer.allocate(2 + length).putShort((short)code).put(text, 0, length).flip());
+	}
+}
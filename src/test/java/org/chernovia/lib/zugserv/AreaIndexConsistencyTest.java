@@ -0,0 +1,51 @@
+package org.chernovia.lib.zugserv;
+
+import org.junit.jupiter.api.Test;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives random joins, parts, observations, disconnections and area removals, checking after each step that the
+ * user -> areas and Connection -> observed areas indices agree with the areas themselves (see ZugHandler.checkAreaIndex()).
+ */
+class AreaIndexConsistencyTest {
+
+    @Test
+    void indicesStayConsistent() {
+        TestManager manager = new TestManager();
+        manager.setPreserveDisconnectedUsers(false);
+        Random random = new Random(42);
+        List<ZugUser> users = new ArrayList<>();
+        List<ZugArea> areas = new ArrayList<>();
+        for (int i = 0; i < 20; i++) users.add(manager.login("user" + i, new TestConn("10.0.0." + i)));
+        for (int i = 0; i < 8; i++) areas.add(manager.newArea("area" + i, users.get(i)));
+        for (int step = 0; step < 5000; step++) {
+            ZugUser user = users.get(random.nextInt(users.size()));
+            ZugArea area = areas.get(random.nextInt(areas.size()));
+            switch (random.nextInt(7)) {
+                case 0, 1 -> area.addOccupant(new TestManager.TestOccupant(user, area));
+                case 2 -> area.dropOccupant(user);
+                case 3 -> area.addObserver(user.getConn());
+                case 4 -> area.removeObserver(user.getConn());
+                case 5 -> { //reconnect
+                    manager.disconnected(user.getConn());
+                    ZugUser fresh = manager.login(user.getName(), new TestConn(user.getConn().getAddress()));
+                    users.set(users.indexOf(user), fresh);
+                    assertTrue(manager.getObserverIndex().getObserved(user.getConn()).isEmpty());
+                    for (ZugArea a : areas) assertFalse(a.isObserver(user.getConn()));
+                }
+                default -> {
+                    if (random.nextInt(20) == 0) { //replace an area
+                        manager.removeArea(area);
+                        areas.set(areas.indexOf(area), manager.newArea("area" + (1000 + step), user));
+                    }
+                }
+            }
+            assertEquals(List.of(), manager.checkAreaIndex(), "step " + step);
+        }
+        for (ZugUser user : users) {
+            List<ZugArea> expected = areas.stream().filter(a -> a.getOccupant(user).isPresent()).toList();
+            assertEquals(new HashSet<>(expected), new HashSet<>(manager.areasByUserToJSON(user)));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.chernovia.lib.zugserv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs many blocking-style area loops (each sleeping through PhaseManagerSimple phases) on virtual and then platform threads,
+ * reporting the live thread count, heap and resident memory used by each, and checking that every phase can still be interrupted.
+ * Run with: mvn test -Dtest=AreaThreadLoadTest -Dzug.loadtest=true [-Dzug.loadtest.areas=20000]
+ */
+@EnabledIfSystemProperty(named = "zug.loadtest", matches = "true")
+class AreaThreadLoadTest {
+    enum LoadPhase { waiting }
+
+    static class LoopingArea extends ZugArea {
+        final CountDownLatch sleeping;
+        final AtomicInteger interrupted;
+
+        LoopingArea(String title, ZugUser creator, boolean virtual, CountDownLatch sleeping, AtomicInteger interrupted) {
+            super(title, ZugFields.UNKNOWN_STRING, creator, null, new AreaConfig(true, true, true, false, false, virtual));
+            this.sleeping = sleeping; this.interrupted = interrupted;
+        }
+
+        @Override
+        public String getName() { return getTitle(); }
+
+        @Override
+        public void run() {
+            sleeping.countDown();
+            while (isRunning()) {
+                if (!pm().newPhase(LoadPhase.waiting, 60).join()) interrupted.incrementAndGet();
+            }
+        }
+    }
+
+    private record Usage(int threads, long heapBytes, long residentBytes, long startMillis) {}
+
+    private static long heapUsed() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Gets the process's resident memory (which, unlike the heap, includes thread stacks) on Linux, or else zero.
+     */
+    private static long residentMemory() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+            }
+        }
+        catch (IOException | RuntimeException ignore) {}
+        return 0;
+    }
+
+    private static Usage run(int count, boolean virtual) throws InterruptedException {
+        ZugUser creator = new ZugUser(new TestConn("127.0.0.1"), new ZugUser.UniqueName("creator", org.chernovia.lib.zugserv.enums.ZugAuthSource.none));
+        CountDownLatch sleeping = new CountDownLatch(count);
+        AtomicInteger interrupted = new AtomicInteger();
+        List<LoopingArea> areas = new ArrayList<>(count);
+        long heapBefore = heapUsed(), residentBefore = residentMemory(), start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            LoopingArea area = new LoopingArea("area" + i, creator, virtual, sleeping, interrupted);
+            areas.add(area);
+            area.startArea(creator, null);
+        }
+        assertTrue(sleeping.await(2, TimeUnit.MINUTES));
+        long startMillis = System.currentTimeMillis() - start;
+        Thread.sleep(500); //let the loops reach their sleeps
+        Usage usage = new Usage(ManagementFactory.getThreadMXBean().getThreadCount(),
+                heapUsed() - heapBefore, residentMemory() - residentBefore, startMillis);
+        for (LoopingArea area : areas) area.pm().interruptPhase();
+        long deadline = System.currentTimeMillis() + 60000;
+        while (interrupted.get() < count && System.currentTimeMillis() < deadline) Thread.sleep(50);
+        assertEquals(count, interrupted.get(), "interrupted phases");
+        for (LoopingArea area : areas) area.stopArea(false);
+        for (LoopingArea area : areas) area.getAreaThread().join(10000);
+        return usage;
+    }
+
+    @Test
+    void platformVersusVirtualAreaThreads() throws InterruptedException {
+        int count = Integer.getInteger("zug.loadtest.areas", 10000);
+        Usage virtual = run(count, true); //first, since the process's resident memory doesn't shrink much after the platform run
+        Usage platform = run(count, false);
+        for (Usage usage : List.of(virtual, platform)) {
+            System.out.printf("%d areas on %s threads: %d live threads, %d MB heap, %d MB resident, started in %d ms%n",
+                    count, usage == platform ? "platform" : "virtual", usage.threads(),
+                    usage.heapBytes() >> 20, usage.residentBytes() >> 20, usage.startMillis());
+        }
+        assertTrue(platform.threads() >= count);
+        if (ZugArea.getVirtualExecutor() != null) assertTrue(virtual.threads() < count / 10, "virtual area threads are not platform threads");
+    }
+}
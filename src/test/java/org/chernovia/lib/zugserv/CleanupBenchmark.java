@@ -0,0 +1,60 @@
+package org.chernovia.lib.zugserv;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a ZugManager.cleanup() tick at 50k users and 5k areas, where a number of users ("stalled") have timed out
+ * but still occupy an area, and so are revisited every tick.  For comparison, legacyScan() performs the same checks as the
+ * full scan cleanup() used to do: testing every area and user, and for each timed out user, every area's occupants.
+ * Run with: mvn -Pbench test -Dbench=CleanupBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CleanupBenchmark {
+
+    @Param({"50000"})
+    public int users;
+
+    @Param({"5000"})
+    public int areas;
+
+    @Param({"0", "500"})
+    public int stalled;
+
+    private TestManager manager;
+
+    @Setup
+    public void setup() {
+        manager = new TestManager();
+        ZugUser[] user = new ZugUser[users];
+        for (int i = 0; i < users; i++) {
+            user[i] = manager.login("user" + i, new TestConn("10.0." + (i >> 8) + "." + (i & 255)));
+            user[i].setIdleTimeout(i < stalled ? -1 : 3600);
+        }
+        for (int i = 0; i < areas; i++) {
+            ZugArea area = manager.newArea("area" + i, user[i % users]);
+            area.setIdleTimeout(3600);
+        }
+        ZugArea[] all = manager.getAreas().toArray(new ZugArea[0]);
+        for (int i = 0; i < users; i++) all[i % all.length].addOccupant(new TestManager.TestOccupant(user[i], all[i % all.length]));
+        manager.cleanup(); //files the stalled users under the current second
+    }
+
+    @Benchmark
+    public void cleanup() {
+        manager.cleanup();
+    }
+
+    @Benchmark
+    public void legacyScan(Blackhole bh) {
+        bh.consume(manager.getAreas().stream().filter(Timeoutable::timedOut).count());
+        bh.consume(manager.getUsers().values().stream().filter(user -> user.timedOut() &&
+                manager.getAreas().stream().noneMatch(area -> area.getOccupant(user).isPresent())).count());
+    }
+}
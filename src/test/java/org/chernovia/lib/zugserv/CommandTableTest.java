@@ -0,0 +1,47 @@
+package org.chernovia.lib.zugserv;
+
+import org.junit.jupiter.api.Test;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandTableTest {
+    enum CoreCmd { alpha, beta }
+    enum GameCmd { move, Alpha }
+
+    private final List<String> calls = new ArrayList<>();
+
+    private CommandTable build() {
+        Map<Enum<?>, ZugManager.CommandHandler> handMap = new HashMap<>();
+        handMap.put(CoreCmd.alpha, (user, data) -> calls.add("core.alpha"));
+        handMap.put(CoreCmd.beta, (user, data) -> calls.add("core.beta"));
+        handMap.put(GameCmd.move, (user, data) -> calls.add("game.move"));
+        handMap.put(GameCmd.Alpha, (user, data) -> calls.add("game.alpha"));
+        return CommandTable.build(List.of(CoreCmd.class, GameCmd.class), handMap);
+    }
+
+    private void dispatch(CommandTable table, String type) {
+        for (ZugManager.CommandHandler handler : table.lookup(type)) handler.handleCommand(null, null);
+    }
+
+    @Test
+    void matchesNamesCaseInsensitively() {
+        CommandTable table = build();
+        dispatch(table, "MOVE");
+        dispatch(table, "Beta");
+        assertEquals(List.of("game.move", "core.beta"), calls);
+    }
+
+    @Test
+    void sharedNamesDispatchInRegistrationOrder() {
+        dispatch(build(), "alpha");
+        assertEquals(List.of("core.alpha", "game.alpha"), calls);
+    }
+
+    @Test
+    void ordinalsDoNotMatchAcrossEnumClasses() {
+        CommandTable table = build();
+        assertEquals(0, table.lookup("0").length);
+        assertEquals(0, table.lookup("1").length);
+        assertEquals(0, table.lookup("gamma").length);
+    }
+}
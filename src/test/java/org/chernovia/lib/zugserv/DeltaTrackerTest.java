@@ -0,0 +1,101 @@
+package org.chernovia.lib.zugserv;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeltaTrackerTest {
+
+    private static ObjectNode occupant(String name, boolean away) {
+        ObjectNode node = ZugUtils.newJSON();
+        node.set(ZugFields.USER, ZugUtils.newJSON().put(ZugFields.NAME, name).put(ZugFields.SOURCE, "none"));
+        return node.put("away", away);
+    }
+
+    private static ObjectNode room(ObjectNode... occupants) {
+        ObjectNode node = ZugUtils.newJSON().put(ZugFields.AREA_ID, "room");
+        ArrayNode array = node.putArray(ZugFields.OCCUPANTS);
+        for (ObjectNode occupant : occupants) array.add(occupant);
+        return node;
+    }
+
+    /**
+     * Applies JSON-patch-like operations (with paths into objects and arrays only) to a copy of a value.
+     */
+    private static JsonNode apply(JsonNode value, ArrayNode ops) {
+        ObjectNode doc = ZugUtils.newJSON();
+        doc.set("root", value.deepCopy());
+        for (JsonNode op : ops) {
+            String[] path = ("/root" + op.get(DeltaTracker.PATH).asText()).substring(1).split("/", -1);
+            JsonNode parent = doc;
+            for (int i = 0; i < path.length - 1; i++) parent = step(parent, path[i]);
+            String last = path[path.length - 1].replace("~1", "/").replace("~0", "~");
+            String type = op.get(DeltaTracker.OP).asText();
+            if (parent instanceof ArrayNode array) {
+                int i = Integer.parseInt(last);
+                if (!type.equals(DeltaTracker.ADD)) array.remove(i);
+                if (!type.equals(DeltaTracker.REMOVE)) array.insert(i, op.get(DeltaTracker.VALUE));
+            }
+            else if (type.equals(DeltaTracker.REMOVE)) ((ObjectNode)parent).remove(last);
+            else ((ObjectNode)parent).set(last, op.get(DeltaTracker.VALUE));
+        }
+        return doc.get("root");
+    }
+
+    private static JsonNode step(JsonNode node, String token) {
+        token = token.replace("~1", "/").replace("~0", "~");
+        return node.isArray() ? node.get(Integer.parseInt(token)) : node.get(token);
+    }
+
+    private static ArrayNode checkDiff(JsonNode from, JsonNode to) {
+        ArrayNode ops = DeltaTracker.diff(from, to);
+        assertEquals(to, apply(from, ops));
+        return ops;
+    }
+
+    @Test
+    void joinIsASingleAdd() {
+        ArrayNode ops = checkDiff(room(occupant("a", false), occupant("b", false)),
+                room(occupant("a", false), occupant("x", false), occupant("b", false)));
+        assertEquals(1, ops.size());
+        assertEquals(DeltaTracker.ADD, ops.get(0).get(DeltaTracker.OP).asText());
+        assertEquals("/" + ZugFields.OCCUPANTS + "/1", ops.get(0).get(DeltaTracker.PATH).asText());
+    }
+
+    @Test
+    void partIsASingleRemove() {
+        ArrayNode ops = checkDiff(room(occupant("a", false), occupant("b", false), occupant("c", false)),
+                room(occupant("a", false), occupant("c", false)));
+        assertEquals(1, ops.size());
+        assertEquals(DeltaTracker.REMOVE, ops.get(0).get(DeltaTracker.OP).asText());
+        assertEquals("/" + ZugFields.OCCUPANTS + "/1", ops.get(0).get(DeltaTracker.PATH).asText());
+    }
+
+    @Test
+    void simultaneousChangesKeepIndicesValid() {
+        ArrayNode ops = checkDiff(room(occupant("a", false), occupant("b", false), occupant("c", false), occupant("d", false)),
+                room(occupant("y", false), occupant("b", true), occupant("d", false), occupant("z", false)));
+        assertEquals(5, ops.size()); //two removes, two adds, one replace
+    }
+
+    @Test
+    void reorderedOrAnonymousElementsFallBack() {
+        checkDiff(room(occupant("a", false), occupant("b", false)), room(occupant("b", false), occupant("a", true)));
+        ObjectNode from = ZugUtils.newJSON(), to = ZugUtils.newJSON();
+        from.putArray("list").add(ZugUtils.newJSON().put("x", 1)).add(ZugUtils.newJSON().put("x", 2));
+        to.putArray("list").add(ZugUtils.newJSON().put("x", 1));
+        ArrayNode ops = checkDiff(from, to);
+        assertEquals(DeltaTracker.REPLACE, ops.get(0).get(DeltaTracker.OP).asText());
+    }
+
+    @Test
+    void scalarArraysAndEscapedFields() {
+        ObjectNode from = ZugUtils.newJSON(), to = ZugUtils.newJSON();
+        from.putArray("a/b").add("x").add("y");
+        to.putArray("a/b").add("y").add("z");
+        to.put("c~d", 1);
+        checkDiff(from, to);
+    }
+}
@@ -0,0 +1,102 @@
+package org.chernovia.lib.zugserv;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageManagerTest {
+
+    private static ObjectNode msg(int i) { return ZugUtils.newJSON().put(ZugFields.MSG, "msg " + i); }
+
+    private static String write(JsonNode node) { return new String(ZugUtils.writeBytes(node), StandardCharsets.UTF_8); }
+
+    @Test
+    void keepsTheMostRecentMessages() {
+        MessageManager manager = new MessageManager(3);
+        for (int i = 0; i < 5; i++) manager.addMessage(msg(i));
+        assertEquals(3, manager.size());
+        assertEquals("msg 2", manager.toJSONArray().get(0).get(ZugFields.MSG).asText());
+        manager.setCapacity(2);
+        assertEquals(2, manager.size());
+        assertEquals("msg 3", manager.toJSONArray().get(0).get(ZugFields.MSG).asText());
+    }
+
+    @Test
+    void historyIsATreeThatSerializesLikeOne() {
+        MessageManager manager = new MessageManager(10);
+        for (int i = 0; i < 4; i++) manager.addMessage(msg(i));
+        ObjectNode node = ZugUtils.newJSON();
+        node.set(ZugFields.MSG_HISTORY, manager.toJSONArray());
+        assertTrue(node.get(ZugFields.MSG_HISTORY).isArray());
+        ArrayNode plain = ZugUtils.newJSONArray();
+        manager.toJSONArray().forEach(plain::add);
+        assertEquals(write(plain), write(node.get(ZugFields.MSG_HISTORY)));
+        assertEquals(write(plain), write(node.get(ZugFields.MSG_HISTORY))); //cached
+        ((ArrayNode) node.get(ZugFields.MSG_HISTORY)).remove(0);
+        plain.remove(0);
+        assertEquals(write(plain), write(node.get(ZugFields.MSG_HISTORY)));
+    }
+
+    @Test
+    void concurrentAppendsAreNotLost() throws InterruptedException {
+        MessageManager manager = new MessageManager(10000);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) threads.add(new Thread(() -> {
+            for (int i = 0; i < 1000; i++) manager.addMessage(msg(i));
+        }));
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) thread.join();
+        assertEquals(8000, manager.size());
+    }
+
+    @Test
+    void readsDuringAppendsSeeEachWritersMessagesInOrder() throws InterruptedException {
+        MessageManager manager = new MessageManager(50);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int writer = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 5000; i++) manager.addMessage(msg(writer * 100000 + i));
+            }));
+        }
+        threads.forEach(Thread::start);
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            int[] last = {-1, -1, -1, -1};
+            ArrayNode history = manager.toJSONArray();
+            assertTrue(history.size() <= 50);
+            for (JsonNode msg : history) {
+                int n = Integer.parseInt(msg.get(ZugFields.MSG).asText().substring(4));
+                assertTrue(n % 100000 > last[n / 100000]);
+                last[n / 100000] = n % 100000;
+            }
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(50, manager.size());
+    }
+
+    @Test
+    void appendsReachTheStore() {
+        List<JsonNode> stored = new CopyOnWriteArrayList<>();
+        HistoryStore store = new HistoryStore() {
+            public long append(String channel, JsonNode msg) { stored.add(msg); return stored.size() - 1; }
+            public List<Entry> tail(String channel, int n) { return List.of(new Entry(0, msg(-1))); }
+            public List<Entry> range(String channel, long fromSeq, int limit) { return List.of(); }
+            public void flush() {}
+            public void close() {}
+        };
+        MessageManager manager = new MessageManager(10);
+        manager.addMessage(msg(0));
+        manager.setStore(store, "chan");
+        assertEquals(1, manager.size());
+        assertEquals("msg -1", manager.toJSONArray().get(0).get(ZugFields.MSG).asText());
+        manager.addMessage(msg(1));
+        assertEquals(1, stored.size());
+        assertEquals(2, manager.size());
+    }
+}
@@ -0,0 +1,53 @@
+package org.chernovia.lib.zugserv;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class NameAllocatorTest {
+
+    @Test
+    void allocatesTheSmallestFreeSuffix() {
+        NameAllocator names = new NameAllocator();
+        assertEquals("Guest", names.allocate("Guest"));
+        names.add("Guest");
+        for (int i = 1; i <= 5; i++) {
+            assertEquals("Guest" + i, names.allocate("Guest"));
+            names.add("Guest" + i);
+        }
+        names.remove("guest3");
+        assertEquals("guest3", names.allocate("guest"));
+        names.add("Guest3");
+        assertEquals("Guest6", names.allocate("Guest"));
+    }
+
+    @Test
+    void countsNamesAddedOutsideTheAllocator() {
+        NameAllocator names = new NameAllocator();
+        names.add("Bob"); names.add("bob2"); names.add("Bob02");
+        assertEquals("Bob1", names.allocate("Bob"));
+        names.add("Bob1");
+        assertEquals("Bob3", names.allocate("Bob"));
+    }
+
+    @Test
+    void suffixEntriesAreEvictedWhenFreed() {
+        NameAllocator names = new NameAllocator();
+        names.add("Guest");
+        for (int i = 1; i <= 100; i++) names.add(names.allocate("Guest"));
+        assertTrue(names.getIndexedBases() > 0);
+        for (int i = 1; i <= 100; i++) names.remove("Guest" + i);
+        assertEquals(0, names.getIndexedBases());
+        assertEquals(1, names.size());
+        assertEquals("Guest1", names.allocate("Guest"));
+    }
+
+    @Test
+    void aNameHeldTwiceIsFreedOnlyOnce() {
+        NameAllocator names = new NameAllocator();
+        names.add("Ann"); names.add("Ann1"); names.add("Ann1");
+        names.remove("Ann1");
+        assertEquals("Ann2", names.allocate("Ann"));
+        names.remove("Ann1");
+        assertEquals("Ann1", names.allocate("Ann"));
+    }
+}
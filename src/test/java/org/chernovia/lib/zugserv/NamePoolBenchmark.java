@@ -0,0 +1,62 @@
+package org.chernovia.lib.zugserv;
+
+import net.datafaker.Faker;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares generating guest, area and bot names from the preloaded NamePools with the Faker calls they replaced,
+ * both as originally written (i.e., a new Faker per name part) and with a single shared Faker.
+ * Run with: mvn -Pbench test -Dbench=NamePoolBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamePoolBenchmark {
+
+    private Faker faker;
+
+    @Setup
+    public void setup() {
+        faker = new Faker();
+    }
+
+    @Benchmark
+    public String guestNamePool() {
+        return NamePool.generate(NamePool.ARTISTS, NamePool.ANIMALS);
+    }
+
+    @Benchmark
+    public String guestNameNewFaker() {
+        return new Faker().artist().name().replace(" ","") + new Faker().animal().name();
+    }
+
+    @Benchmark
+    public String guestNameSharedFaker() {
+        return faker.artist().name().replace(" ","") + faker.animal().name();
+    }
+
+    @Benchmark
+    public String areaTitlePool() {
+        return NamePool.generate(NamePool.OPENINGS);
+    }
+
+    @Benchmark
+    public String areaTitleNewFaker() {
+        return new Faker().chess().opening().replace(" ","").replace("'","");
+    }
+
+    @Benchmark
+    public String botNamePool() {
+        return NamePool.generate(NamePool.COLORS, NamePool.APPLIANCES);
+    }
+
+    @Benchmark
+    public String botNameNewFaker() {
+        String colorName = new Faker().color().name().split(" ")[0];
+        return colorName.substring(0,1).toUpperCase() + colorName.substring(1) + new Faker().appliance().equipment().split(" ")[0];
+    }
+}
@@ -0,0 +1,100 @@
+package org.chernovia.lib.zugserv;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.chernovia.lib.zugserv.enums.ZugServMsgType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+    private ExecutorService savedPool, testPool;
+
+    static class CountingConn extends TestConn {
+        final List<Integer> written = new CopyOnWriteArrayList<>();
+        CountingConn() { super("127.0.0.1"); }
+        @Override
+        protected void write(EncodedMessage msg) { written.add(msg.getData().get("n").asInt()); }
+    }
+
+    /**
+     * Never finishes a write until released, as if the client had stopped reading.
+     */
+    static class StalledConn extends CountingConn {
+        final CompletableFuture<Void> released = new CompletableFuture<>();
+        @Override
+        protected CompletableFuture<Void> writeAsync(EncodedMessage msg) {
+            return released.thenRun(() -> write(msg));
+        }
+    }
+
+    @BeforeEach
+    void setUp() { savedPool = OutboundQueue.getWriterPool(); }
+
+    @AfterEach
+    void tearDown() {
+        OutboundQueue.setWriterPool(savedPool);
+        if (testPool != null) testPool.shutdownNow();
+    }
+
+    private void useWriters(int n) {
+        testPool = Executors.newFixedThreadPool(n);
+        OutboundQueue.setWriterPool(testPool);
+    }
+
+    private static void send(OutboundQueue queue, int n) {
+        queue.add(EncodedMessage.encode(ZugServMsgType.servMsg, ZugUtils.newJSON().put("n", n)));
+    }
+
+    private static void awaitWritten(CountingConn conn, int messages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (conn.written.size() < messages && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(messages, conn.written.size());
+        for (int i = 0; i < messages; i++) assertEquals(i, (int)conn.written.get(i));
+    }
+
+    @Test
+    void busyQueuesShareABoundedPoolInOrder() throws InterruptedException {
+        useWriters(2);
+        int conns = 50, messages = 1000;
+        CountingConn[] conn = new CountingConn[conns];
+        OutboundQueue[] queue = new OutboundQueue[conns];
+        for (int c = 0; c < conns; c++) {
+            conn[c] = new CountingConn();
+            queue[c] = new OutboundQueue(conn[c], messages, OutboundQueue.OverflowPolicy.DISCONNECT, Set.of());
+        }
+        for (int i = 0; i < messages; i++) {
+            for (int c = 0; c < conns; c++) {
+                JsonNode data = ZugUtils.newJSON().put("n", i);
+                queue[c].add(EncodedMessage.encode(ZugServMsgType.servMsg, data));
+            }
+        }
+        for (int c = 0; c < conns; c++) {
+            awaitWritten(conn[c], messages);
+            assertNull(conn[c].getCloseReason());
+        }
+    }
+
+    @Test
+    void stalledWritesDontHoldWriters() throws InterruptedException {
+        useWriters(1);
+        int messages = 100;
+        StalledConn stalled = new StalledConn();
+        CountingConn other = new CountingConn();
+        OutboundQueue stalledQueue = new OutboundQueue(stalled, messages, OutboundQueue.OverflowPolicy.DISCONNECT, Set.of());
+        OutboundQueue otherQueue = new OutboundQueue(other, messages, OutboundQueue.OverflowPolicy.DISCONNECT, Set.of());
+        for (int i = 0; i < messages; i++) send(stalledQueue, i);
+        for (int i = 0; i < messages; i++) send(otherQueue, i);
+        awaitWritten(other, messages); //despite the only writer having started on the stalled queue
+        assertTrue(stalled.written.isEmpty());
+        stalled.released.complete(null);
+        awaitWritten(stalled, messages);
+    }
+}
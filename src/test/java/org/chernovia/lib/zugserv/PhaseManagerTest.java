@@ -0,0 +1,63 @@
+package org.chernovia.lib.zugserv;
+
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import java.util.concurrent.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhaseManagerTest {
+    enum TestPhase { one, two }
+
+    private final TestManager manager = new TestManager();
+
+    private ZugArea newArea(String title) {
+        return manager.newArea(title, manager.login("creator_" + title, new TestConn("127.0.0.1")));
+    }
+
+    @Test
+    void callbacksRunOffTheSchedulerThreads() throws Exception {
+        CompletableFuture<String> thread = new CompletableFuture<>();
+        newArea("a").pm().runPausableAction(10, () -> thread.complete(Thread.currentThread().getName()));
+        assertFalse(thread.get(5, TimeUnit.SECONDS).startsWith("ZugPhase-"));
+    }
+
+    @Test
+    void blockingCallbacksDontDelayOtherAreas() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 4 * Runtime.getRuntime().availableProcessors(); i++) { //likely blocking every shard, were callbacks run there
+            newArea("b" + i).pm().runPausableAction(0, () -> {
+                try { release.await(); } catch (InterruptedException ignore) {}
+            });
+        }
+        try {
+            assertTrue(newArea("c").pm().newPhase(TestPhase.one, 50).get(5, TimeUnit.SECONDS));
+        }
+        finally { release.countDown(); }
+    }
+
+    @Test
+    void callbacksOfAnAreaRunInOrder() throws Exception {
+        PhaseManager pm = newArea("d").pm();
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        pm.awaitSpam(TestPhase.one, 0).thenRun(() -> order.add(1))
+                .thenCompose(v -> pm.awaitSpam(TestPhase.two, 0)).thenRun(() -> order.add(2))
+                .thenRun(() -> done.complete(null));
+        done.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(1, 2), order);
+    }
+
+    @Test
+    void cancelledPhasesDontTimeOut() throws Exception {
+        PhaseManager pm = newArea("e").pm();
+        CompletableFuture<Boolean> phase = pm.newPhase(TestPhase.one, 20);
+        pm.cancelPhase();
+        assertThrows(CancellationException.class, () -> phase.get(5, TimeUnit.SECONDS));
+        CountDownLatch ran = new CountDownLatch(1);
+        pm.runPausableAction(20, ran::countDown);
+        pm.pause();
+        assertFalse(ran.await(100, TimeUnit.MILLISECONDS));
+        pm.resume();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,96 @@
+package org.chernovia.lib.zugserv;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.chernovia.lib.zugserv.enums.ZugServMsgType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentLogStoreTest {
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("zug-history");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+
+    private static ObjectNode msg(int i) { return ZugUtils.newJSON().put(ZugFields.MSG, "msg " + i); }
+
+    private static String text(HistoryStore.Entry entry) { return entry.msg().get(ZugFields.MSG).asText(); }
+
+    private SegmentLogStore open() throws IOException {
+        return new SegmentLogStore(dir, 4096, 4, 60000);
+    }
+
+    private Path segment() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(p -> p.toString().endsWith(".seg")).findFirst().orElseThrow();
+        }
+    }
+
+    @Test
+    void recordsSurviveReopening() throws IOException {
+        SegmentLogStore store = open();
+        for (int i = 0; i < 100; i++) assertEquals(i, store.append("chan", msg(i)));
+        store.close();
+        store = open();
+        List<HistoryStore.Entry> tail = store.tail("chan", 3);
+        assertEquals(List.of("msg 97", "msg 98", "msg 99"), tail.stream().map(SegmentLogStoreTest::text).toList());
+        assertEquals(97, tail.get(0).seq());
+        assertEquals(100, store.append("chan", msg(100)));
+        store.close();
+    }
+
+    @Test
+    void aCorruptRecordEndsTheLogAndIsOverwritten() throws IOException {
+        SegmentLogStore store = open();
+        for (int i = 0; i < 3; i++) store.append("chan", msg(i));
+        store.close();
+        int second = 8 + ZugUtils.writeBytes(msg(0)).length;
+        try (RandomAccessFile file = new RandomAccessFile(segment().toFile(), "rw")) {
+            file.seek(second + 8 + 2); //within the payload, so only the checksum can tell
+            file.write('X');
+        }
+        store = open();
+        assertEquals(List.of("msg 0"), store.tail("chan", 10).stream().map(SegmentLogStoreTest::text).toList());
+        assertEquals(1, store.append("chan", msg(1)));
+        store.close();
+        store = open(); //the stale third record must not reappear after the rewritten second
+        assertEquals(List.of("msg 0", "msg 1"), store.tail("chan", 10).stream().map(SegmentLogStoreTest::text).toList());
+        store.close();
+    }
+
+    @Test
+    void scrollbackPagesThroughTheStore() throws IOException {
+        SegmentLogStore store = open();
+        TestManager manager = new TestManager();
+        manager.setHistoryStore(store);
+        for (int i = 0; i < 5; i++) manager.getMessageManager().addMessage(msg(i));
+        TestConn conn = new TestConn("10.0.0.1");
+        ZugUser user = manager.login("reader", conn);
+        manager.handleScrollback(user, ZugUtils.newJSON().put(ZugFields.SEQ, 1).put(ZugFields.LIMIT, 3));
+        assertEquals(ZugServMsgType.scrollback.name(), conn.told.get(conn.told.size() - 1));
+        JsonNode reply = conn.getLastMsg();
+        assertEquals(3, reply.get(ZugFields.MSG_HISTORY).size());
+        assertEquals(1, reply.get(ZugFields.MSG_HISTORY).get(0).get(ZugFields.SEQ).asLong());
+        assertEquals("msg 3", reply.get(ZugFields.MSG_HISTORY).get(2).get(ZugFields.MSG).get(ZugFields.MSG).asText());
+        assertEquals(4, reply.get(ZugFields.SEQ).asLong());
+        store.close();
+    }
+}
@@ -0,0 +1,49 @@
+package org.chernovia.lib.zugserv;
+
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SerialExecutorTest {
+
+    @Test
+    void runIsInlineWhenIdleAndNestedRunsAreImmediate() {
+        SerialExecutor executor = new SerialExecutor(task -> fail("should not hand off"));
+        Thread caller = Thread.currentThread();
+        List<String> order = new CopyOnWriteArrayList<>();
+        executor.run(() -> {
+            assertSame(caller, Thread.currentThread());
+            order.add("outer");
+            executor.run(() -> order.add("nested"));
+            order.add("after");
+        });
+        assertEquals(List.of("outer", "nested", "after"), order);
+    }
+
+    @Test
+    void runQueuesBehindABusyExecutor() throws InterruptedException {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            SerialExecutor executor = new SerialExecutor(pool);
+            CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1), done = new CountDownLatch(1);
+            List<String> order = new CopyOnWriteArrayList<>();
+            executor.execute(() -> {
+                started.countDown();
+                try { release.await(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                order.add("first");
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            executor.run(() -> { order.add("second"); done.countDown(); }); //returns at once, queued
+            assertTrue(order.isEmpty());
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of("first", "second"), order);
+        }
+        finally { pool.shutdownNow(); }
+    }
+}
@@ -0,0 +1,42 @@
+package org.chernovia.lib.zugserv;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An in-memory Connection that records the types of the messages told to it.
+ */
+public class TestConn extends ConnAdapter {
+    private String address;
+    private volatile String closeReason = null;
+    public final List<String> told = new CopyOnWriteArrayList<>();
+    private volatile JsonNode lastMsg = null;
+
+    public TestConn(String address) {
+        this.address = address;
+        setOrigin(address);
+        setStatus(Status.STATUS_OK);
+    }
+
+    public String getCloseReason() { return closeReason; }
+
+    public JsonNode getLastMsg() { return lastMsg; }
+
+    @Override
+    public void setAddress(String a) { address = a; }
+
+    @Override
+    public String getAddress() { return address; }
+
+    @Override
+    public void close(String reason) {
+        closeReason = reason; setStatus(Status.STATUS_DISCONNECTED);
+    }
+
+    @Override
+    public void tell(Enum<?> type, String msg) { told.add(type.name()); }
+
+    @Override
+    public void tell(Enum<?> type, JsonNode msg) { lastMsg = msg; told.add(type.name()); }
+}
@@ -0,0 +1,60 @@
+package org.chernovia.lib.zugserv;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.chernovia.lib.zugserv.enums.ZugAuthSource;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A serverless ZugManager (without authentication) whose users, areas and Occupants are created on request.
+ */
+public class TestManager extends ZugManager {
+
+    public TestManager() {
+        super(ZugServ.ServType.UNKNOWN, 0, new ArrayList<>(), Map.of(ZugAuthSource.lichess, false, ZugAuthSource.google, false));
+    }
+
+    public ZugUser login(String name, Connection conn) {
+        ZugUser user = new ZugUser(conn, new ZugUser.UniqueName(name, ZugAuthSource.none));
+        return addOrGetUser(user).orElse(user);
+    }
+
+    public ZugArea newArea(String title, ZugUser creator) {
+        ZugArea area = new TestArea(title, creator, this);
+        return addOrGetArea(area).orElse(area);
+    }
+
+    @Override
+    public Optional<ZugUser> handleCreateUser(Connection conn, ZugUser.UniqueName uName, JsonNode dataNode) {
+        return Optional.of(new ZugUser(conn, uName));
+    }
+
+    @Override
+    public Optional<ZugArea> handleCreateArea(ZugUser user, String title, JsonNode dataNode) {
+        return Optional.of(new TestArea(title, user, this));
+    }
+
+    @Override
+    public Optional<Occupant> handleCreateOccupant(ZugUser user, ZugArea area, JsonNode dataNode) {
+        return Optional.of(new TestOccupant(user, area));
+    }
+
+    @Override
+    public void handleUnsupportedMsg(Connection conn, String type, JsonNode dataNode, ZugUser user) {}
+
+    public static class TestArea extends ZugArea {
+        public TestArea(String title, ZugUser creator, AreaListener listener) {
+            super(title, creator, listener);
+        }
+
+        @Override
+        public String getName() { return getTitle(); }
+    }
+
+    public static class TestOccupant extends Occupant {
+        public TestOccupant(ZugUser user, ZugArea area) {
+            super(user, area);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.chernovia.lib.zugserv;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.chernovia.lib.zugserv.enums.ZugAuthSource;
+import org.junit.jupiter.api.Test;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenLoginTest {
+
+    @Test
+    void loginCompletesInTheConnectionsSerialContext() throws InterruptedException {
+        CountDownLatch created = new CountDownLatch(1);
+        String[] creator = new String[1];
+        TestManager manager = new TestManager() {
+            @Override
+            public Optional<ZugUser> handleCreateUser(Connection conn, ZugUser.UniqueName uName, JsonNode dataNode) {
+                creator[0] = Thread.currentThread().getName(); created.countDown();
+                return super.handleCreateUser(conn, uName, dataNode);
+            }
+        };
+        manager.setIdentityProvider(ZugAuthSource.lichess, new StubIdentityProvider().addToken("token", "alice"));
+        TestConn conn = new TestConn("10.0.0.1");
+        CountDownLatch busy = new CountDownLatch(1), release = new CountDownLatch(1);
+        conn.getSerialExecutor().execute(() -> { //e.g., a message still being handled
+            busy.countDown();
+            try { release.await(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        });
+        assertTrue(busy.await(5, TimeUnit.SECONDS));
+        manager.handleTokenLogin(conn, ZugAuthSource.lichess, "token");
+        assertFalse(created.await(300, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(created.await(5, TimeUnit.SECONDS));
+        assertTrue(creator[0].startsWith("ZugConnTask-"), creator[0]);
+        for (int i = 0; i < 100 && manager.getUserByConn(conn).isEmpty(); i++) Thread.sleep(10);
+        assertEquals("alice", manager.getUserByConn(conn).map(ZugUser::getName).orElse(null));
+    }
+}
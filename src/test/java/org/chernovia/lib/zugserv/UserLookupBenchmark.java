@@ -0,0 +1,73 @@
+package org.chernovia.lib.zugserv;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the per-message cost of finding a message's sender (via getUserByConn()) and of dispatching an entire
+ * inbound message (from parsing to its handler), neither of which should grow with the number of online users
+ * (unlike scanUsers(), the linear scan getUserByConn() used to perform).
+ * Run with: mvn -Pbench test -Dbench=UserLookupBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserLookupBenchmark {
+
+    public enum BenchMsgType { noop }
+    private static final String MSG = "{\"type\":\"noop\",\"data\":{\"n\":1}}";
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int users;
+
+    private TestManager manager;
+    private TestConn[] conns;
+    private final LongAdder handled = new LongAdder();
+
+    @Setup
+    public void setup() {
+        manager = new TestManager();
+        manager.setFloodControl(0, 0, ZugHandler.FloodPenalty.DROP);
+        manager.addMessageList(BenchMsgType.class);
+        manager.addHandler(BenchMsgType.noop, (user, data) -> handled.increment());
+        conns = new TestConn[users];
+        for (int i = 0; i < users; i++) {
+            conns[i] = new TestConn("10." + (i >> 16) + "." + ((i >> 8) & 255) + "." + (i & 255));
+            manager.login("user" + i, conns[i]);
+        }
+    }
+
+    private TestConn randomConn() {
+        return conns[ThreadLocalRandom.current().nextInt(conns.length)];
+    }
+
+    @Benchmark
+    public void getUserByConn(Blackhole bh) {
+        bh.consume(manager.getUserByConn(randomConn()));
+    }
+
+    /**
+     * The linear scan that getUserByConn() replaced, for comparison.
+     */
+    @Benchmark
+    public void scanUsers(Blackhole bh) {
+        TestConn conn = randomConn();
+        bh.consume(manager.getUsers().values().stream().filter(user -> user.getConn() == conn).findFirst());
+    }
+
+    @Benchmark
+    public void getUserByAddress(Blackhole bh) {
+        bh.consume(manager.getUserByAddress(randomConn()));
+    }
+
+    @Benchmark
+    public void dispatch() {
+        manager.newMsg(randomConn(), MSG);
+    }
+}
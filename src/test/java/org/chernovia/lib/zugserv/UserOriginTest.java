@@ -0,0 +1,23 @@
+package org.chernovia.lib.zugserv;
+
+import org.chernovia.lib.zugserv.enums.ZugClientMsgType;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserOriginTest {
+
+    @Test
+    void claimedAddressesDontChangeTheOrigin() {
+        TestManager manager = new TestManager();
+        TestConn conn = new TestConn("10.0.0.1");
+        ZugUser user = manager.login("user", conn);
+        manager.handleMsg(conn, ZugClientMsgType.ip.name(), ZugUtils.newJSON().put(ZugFields.ADDRESS, "10.0.0.9"));
+        assertEquals("10.0.0.9", conn.getAddress());
+        assertEquals("10.0.0.1", conn.getOrigin());
+        assertSame(user, manager.getUserByAddress(new TestConn("10.0.0.1")).orElse(null));
+        assertTrue(manager.getUserByAddress(new TestConn("10.0.0.9")).isEmpty());
+        assertFalse(conn.isSameOrigin(new TestConn("10.0.0.9")));
+        manager.removeUser(user);
+        assertTrue(manager.getUserByAddress(new TestConn("10.0.0.1")).isEmpty());
+    }
+}
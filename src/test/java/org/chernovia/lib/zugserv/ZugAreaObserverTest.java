@@ -0,0 +1,27 @@
+package org.chernovia.lib.zugserv;
+
+import org.chernovia.lib.zugserv.enums.ZugServMsgType;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZugAreaObserverTest {
+
+    @Test
+    void onlyActualChangesBumpTheStateVersion() {
+        TestManager manager = new TestManager();
+        ZugArea area = manager.newArea("area", manager.login("creator", new TestConn("10.0.0.1")));
+        TestConn conn = new TestConn("10.0.0.2");
+        long version = area.getStateVersion();
+        assertFalse(area.removeObserver(conn));
+        assertEquals(version, area.getStateVersion());
+        assertTrue(area.addObserver(conn));
+        assertEquals(version + 1, area.getStateVersion());
+        assertFalse(area.addObserver(conn));
+        assertEquals(version + 1, area.getStateVersion());
+        assertTrue(area.removeObserver(conn));
+        assertEquals(version + 2, area.getStateVersion());
+        assertFalse(area.removeObserver(conn));
+        assertEquals(version + 2, area.getStateVersion());
+        assertEquals(1, conn.told.stream().filter(t -> t.equals(ZugServMsgType.unObs.name())).count());
+    }
+}
@@ -0,0 +1,109 @@
+package org.chernovia.lib.zugserv.web;
+
+import org.chernovia.lib.zugserv.ConnListener;
+import org.chernovia.lib.zugserv.Connection;
+import org.chernovia.lib.zugserv.ZugServ;
+import org.chernovia.lib.zugserv.enums.ZugServMsgType;
+import org.chernovia.lib.zugserv.web.manual.ManualWebSockServ;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.openjdk.jmh.annotations.*;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogManager;
+
+/**
+ * Compares the three WebSocket servers (ManualWebSockServ, JavalinServ, and WebSockServ) with a number of idle sockets
+ * connected: roundTrip() echoes one message, and burst() pipelines a batch of messages before awaiting their echoes.
+ * The server simply echoes each message back via Connection.tell(), i.e., through the usual encoding and outbound path.
+ * Run with: mvn -Pbench test -Dbench=TransportBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TransportBenchmark {
+    private static final int BURST = 100;
+
+    @Param({"manual", "javalin", "javaWebSocket"})
+    public String server;
+
+    @Param({"0", "500"})
+    public int idle;
+
+    private ZugServ serv;
+    private EchoClient client;
+    private final List<WebSocketClient> idleClients = new ArrayList<>();
+
+    private static class EchoClient extends WebSocketClient {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        EchoClient(URI uri) { super(uri); }
+        @Override public void onOpen(ServerHandshake handshake) {}
+        @Override public void onMessage(String message) { received.add(message); }
+        @Override public void onClose(int code, String reason, boolean remote) {}
+        @Override public void onError(Exception e) {}
+    }
+
+    private static class Echo implements ConnListener {
+        @Override public void newMsg(Connection conn, String msg) { conn.tell(ZugServMsgType.servMsg, msg); }
+        @Override public void connected(Connection conn) {}
+        @Override public void disconnected(Connection conn) {}
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        LogManager.getLogManager().reset(); //no per-connection logging
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) { port = socket.getLocalPort(); }
+        URI uri = new URI("ws://127.0.0.1:" + port + "/ws");
+        serv = switch (server) {
+            case "manual" -> new ManualWebSockServ(port, new Echo());
+            case "javalin" -> new JavalinServ(port, new Echo(), "ws", List.of());
+            case "javaWebSocket" -> new WebSockServ(port, new Echo());
+            default -> throw new IllegalArgumentException(server);
+        };
+        serv.startSrv();
+        client = connect(new EchoClient(uri)); //also waits for servers that start asynchronously
+        for (int i = 0; i < idle; i++) idleClients.add(connect(new EchoClient(uri)));
+    }
+
+    private static <C extends WebSocketClient> C connect(C client) throws InterruptedException {
+        boolean open = client.connectBlocking(5, TimeUnit.SECONDS);
+        for (int tries = 0; !open; tries++) {
+            if (tries == 50) throw new IllegalStateException("Cannot connect to: " + client.getURI());
+            Thread.sleep(100);
+            open = client.reconnectBlocking();
+        }
+        return client;
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        client.closeBlocking();
+        for (WebSocketClient c : idleClients) c.close();
+        idleClients.clear();
+        serv.stopSrv();
+    }
+
+    @Benchmark
+    public String roundTrip() throws InterruptedException {
+        client.send("ping");
+        return client.received.take();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public String burst() throws InterruptedException {
+        for (int i = 0; i < BURST; i++) client.send("ping" + i);
+        String last = null;
+        for (int i = 0; i < BURST; i++) last = client.received.take();
+        return last;
+    }
+}
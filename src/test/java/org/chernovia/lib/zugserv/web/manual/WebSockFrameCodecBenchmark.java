@@ -0,0 +1,101 @@
+package org.chernovia.lib.zugserv.web.manual;
+
+import org.chernovia.lib.zugserv.EncodedMessage;
+import org.chernovia.lib.zugserv.enums.ZugServMsgType;
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures WebSockFrameCodec on both paths: decodeMasked() unmasks and decodes a client text frame (from a copy of the
+ * frame, since unmasking is in place, so copyFrame() gives the cost of the copy alone), while encodeGathering() frames
+ * an EncodedMessage without copying it and writes the header and payload with one gathering write.  For comparison,
+ * encodeCopied() first copies both into a single buffer.
+ * Run with: mvn -Pbench test -Dbench=WebSockFrameCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSockFrameCodecBenchmark {
+    private static final int MASK = 0x37FA213D;
+
+    @Param({"16", "1024", "65536"})
+    public int length;
+
+    @Param({"ascii", "multibyte"})
+    public String text;
+
+    private WebSockFrameCodec codec;
+    private ByteBuffer masked, work;
+    private EncodedMessage msg;
+    private FileChannel out;
+    private String decoded;
+
+    private final WebSockFrameCodec.FrameListener listener = new WebSockFrameCodec.FrameListener() {
+        @Override public void onText(String s) { decoded = s; }
+        @Override public void onBinary(ByteBuffer data) {}
+        @Override public void onPing(ByteBuffer payload) {}
+        @Override public void onPong(ByteBuffer payload) {}
+        @Override public void onClose(int code, String reason) {}
+    };
+
+    @Setup
+    public void setup() throws IOException {
+        String unit = text.equals("ascii") ? "abcdefgh" : "äöüß"; //eight bytes either way
+        byte[] payload = unit.repeat(Math.max(1, length / 8)).getBytes(StandardCharsets.UTF_8);
+        masked = clientFrame(payload);
+        work = ByteBuffer.allocate(masked.remaining());
+        codec = new WebSockFrameCodec(1 << 20, true);
+        msg = EncodedMessage.encode(ZugServMsgType.servMsg, new String(payload, StandardCharsets.UTF_8));
+        out = FileChannel.open(Files.createTempFile("codec", ".bench"), StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Encodes a text frame as a client would, i.e., masked.
+     */
+    private static ByteBuffer clientFrame(byte[] payload) {
+        ByteBuffer header = WebSockFrameCodec.header(WebSockFrameCodec.OP_TEXT, payload.length, true);
+        ByteBuffer frame = ByteBuffer.allocate(header.remaining() + 4 + payload.length);
+        frame.put(header.get(0)).put((byte)(header.get(1) | 0x80));
+        for (int i = 2; i < header.limit(); i++) frame.put(header.get(i));
+        frame.putInt(MASK);
+        for (int i = 0; i < payload.length; i++) frame.put((byte)(payload[i] ^ (MASK >>> (24 - 8 * (i & 3)))));
+        return frame.flip();
+    }
+
+    @Benchmark
+    public ByteBuffer copyFrame() {
+        return work.clear().put(masked.duplicate()).flip();
+    }
+
+    @Benchmark
+    public String decodeMasked() throws WebSockFrameCodec.ProtocolException {
+        codec.decode(work.clear().put(masked.duplicate()).flip(), listener);
+        return decoded;
+    }
+
+    @Benchmark
+    public long encodeGathering() throws IOException {
+        return out.position(0).write(WebSockFrameCodec.frame(WebSockFrameCodec.OP_TEXT, msg.toByteBuffer()));
+    }
+
+    @Benchmark
+    public long encodeCopied() throws IOException {
+        ByteBuffer payload = msg.toByteBuffer();
+        ByteBuffer header = WebSockFrameCodec.header(WebSockFrameCodec.OP_TEXT, payload.remaining(), true);
+        return out.position(0).write(ByteBuffer.allocate(header.remaining() + payload.remaining()).put(header).put(payload).flip());
+    }
+}
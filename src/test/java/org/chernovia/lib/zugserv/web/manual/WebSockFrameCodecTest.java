@@ -0,0 +1,166 @@
+package org.chernovia.lib.zugserv.web.manual;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebSockFrameCodecTest {
+    private static final int MASK = 0x37FA213D;
+
+    /**
+     * Records each callback (as "text:...", "ping:...", etc.).
+     */
+    private static class Recorder implements WebSockFrameCodec.FrameListener {
+        final List<String> events = new ArrayList<>();
+        @Override public void onText(String text) { events.add("text:" + text); }
+        @Override public void onBinary(ByteBuffer data) { events.add("binary:" + data.remaining()); }
+        @Override public void onPing(ByteBuffer payload) { events.add("ping:" + StandardCharsets.UTF_8.decode(payload)); }
+        @Override public void onPong(ByteBuffer payload) { events.add("pong:" + StandardCharsets.UTF_8.decode(payload)); }
+        @Override public void onClose(int code, String reason) { events.add("close:" + code + ":" + reason); }
+    }
+
+    /**
+     * Encodes a frame as a client would, i.e., masked.
+     */
+    private static byte[] clientFrame(int opcode, boolean fin, byte[] payload) {
+        ByteBuffer header = WebSockFrameCodec.header(opcode, payload.length, fin);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header.get(0));
+        out.write(header.get(1) | 0x80);
+        for (int i = 2; i < header.limit(); i++) out.write(header.get(i));
+        for (int i = 0; i < 4; i++) out.write(MASK >>> (24 - 8 * i));
+        for (int i = 0; i < payload.length; i++) out.write(payload[i] ^ (MASK >>> (24 - 8 * (i & 3))));
+        return out.toByteArray();
+    }
+
+    private static byte[] serverFrame(int opcode, byte[] payload) {
+        ByteBuffer[] frame = WebSockFrameCodec.frame(opcode, ByteBuffer.wrap(payload));
+        ByteBuffer out = ByteBuffer.allocate(frame[0].remaining() + frame[1].remaining());
+        return out.put(frame[0]).put(frame[1]).array();
+    }
+
+    private static ByteBuffer concat(byte[]... frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] frame : frames) out.writeBytes(frame);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) text.append((char) ('a' + i % 26));
+        return text.toString();
+    }
+
+    private static byte[] utf8(String text) { return text.getBytes(StandardCharsets.UTF_8); }
+
+    @Test
+    void maskedFramesAreUnmasked() throws Exception {
+        for (int length : new int[] {0, 1, 7, 8, 13, 125}) { //around the eight byte unmasking stride
+            Recorder recorder = new Recorder();
+            ByteBuffer in = ByteBuffer.wrap(clientFrame(WebSockFrameCodec.OP_TEXT, true, utf8(text(length))));
+            new WebSockFrameCodec(1 << 20, true).decode(in, recorder);
+            assertEquals(List.of("text:" + text(length)), recorder.events);
+            assertFalse(in.hasRemaining());
+        }
+    }
+
+    @Test
+    void unmaskedClientFramesAreRejected() {
+        ByteBuffer in = ByteBuffer.wrap(serverFrame(WebSockFrameCodec.OP_TEXT, utf8("hi")));
+        WebSockFrameCodec.ProtocolException e = assertThrows(WebSockFrameCodec.ProtocolException.class,
+                () -> new WebSockFrameCodec(1 << 20, true).decode(in, new Recorder()));
+        assertEquals(WebSockFrameCodec.CLOSE_PROTOCOL_ERROR, e.getCloseCode());
+    }
+
+    @Test
+    void extendedLengthsRoundTrip() throws Exception {
+        int[][] cases = {{125, 2}, {126, 4}, {0xFFFF, 4}, {0x10000, 10}, {70000, 10}};
+        for (int[] c : cases) {
+            assertEquals(c[1], WebSockFrameCodec.header(WebSockFrameCodec.OP_TEXT, c[0], true).remaining(), "header for " + c[0]);
+            String payload = text(c[0]);
+            Recorder server = new Recorder(), client = new Recorder();
+            new WebSockFrameCodec(1 << 20, false).decode(ByteBuffer.wrap(serverFrame(WebSockFrameCodec.OP_TEXT, utf8(payload))), client);
+            new WebSockFrameCodec(1 << 20, true).decode(ByteBuffer.wrap(clientFrame(WebSockFrameCodec.OP_TEXT, true, utf8(payload))), server);
+            assertEquals(List.of("text:" + payload), client.events);
+            assertEquals(List.of("text:" + payload), server.events);
+        }
+    }
+
+    @Test
+    void incompleteFramesWaitForMoreInput() throws Exception {
+        byte[] frame = clientFrame(WebSockFrameCodec.OP_TEXT, true, utf8(text(300)));
+        WebSockFrameCodec codec = new WebSockFrameCodec(1 << 20, true);
+        Recorder recorder = new Recorder();
+        ByteBuffer in = ByteBuffer.allocate(frame.length);
+        for (int i = 0; i < frame.length; i++) { //one byte at a time, as if from many partial reads
+            in.put(frame[i]).flip();
+            codec.decode(in, recorder);
+            assertEquals(i == frame.length - 1 ? 1 : 0, recorder.events.size());
+            in.compact();
+        }
+        assertEquals(List.of("text:" + text(300)), recorder.events);
+    }
+
+    @Test
+    void fragmentsAreReassembledAroundControlFrames() throws Exception {
+        Recorder recorder = new Recorder();
+        ByteBuffer in = concat(
+                clientFrame(WebSockFrameCodec.OP_TEXT, false, utf8("Hel")),
+                clientFrame(WebSockFrameCodec.OP_PING, true, utf8("p1")),
+                clientFrame(WebSockFrameCodec.OP_CONTINUATION, false, utf8("lo, ")),
+                clientFrame(WebSockFrameCodec.OP_PONG, true, utf8("p2")),
+                clientFrame(WebSockFrameCodec.OP_CONTINUATION, true, utf8("wörld")),
+                clientFrame(WebSockFrameCodec.OP_TEXT, true, utf8("next")));
+        new WebSockFrameCodec(1 << 20, true).decode(in, recorder);
+        assertEquals(List.of("ping:p1", "pong:p2", "text:Hello, wörld", "text:next"), recorder.events);
+    }
+
+    @Test
+    void misplacedContinuationsAreRejected() {
+        assertThrows(WebSockFrameCodec.ProtocolException.class, () -> new WebSockFrameCodec(1 << 20, true)
+                .decode(ByteBuffer.wrap(clientFrame(WebSockFrameCodec.OP_CONTINUATION, true, utf8("x"))), new Recorder()));
+        assertThrows(WebSockFrameCodec.ProtocolException.class, () -> new WebSockFrameCodec(1 << 20, true).decode(concat(
+                clientFrame(WebSockFrameCodec.OP_TEXT, false, utf8("a")),
+                clientFrame(WebSockFrameCodec.OP_TEXT, true, utf8("b"))), new Recorder()));
+    }
+
+    @Test
+    void oversizedFramesAndMessagesAreRejected() {
+        WebSockFrameCodec.ProtocolException e = assertThrows(WebSockFrameCodec.ProtocolException.class,
+                () -> new WebSockFrameCodec(100, true).decode(ByteBuffer.wrap(clientFrame(WebSockFrameCodec.OP_TEXT, true, new byte[101])), new Recorder()));
+        assertEquals(WebSockFrameCodec.CLOSE_TOO_BIG, e.getCloseCode());
+        ByteBuffer header = ByteBuffer.allocate(10).put((byte) 0x81).put((byte) (0x80 | 127)).putLong(Long.MAX_VALUE).flip();
+        e = assertThrows(WebSockFrameCodec.ProtocolException.class, () -> new WebSockFrameCodec(100, true).decode(header, new Recorder()));
+        assertEquals(WebSockFrameCodec.CLOSE_TOO_BIG, e.getCloseCode());
+        ByteBuffer fragments = concat(
+                clientFrame(WebSockFrameCodec.OP_TEXT, false, new byte[60]),
+                clientFrame(WebSockFrameCodec.OP_CONTINUATION, true, new byte[60]));
+        e = assertThrows(WebSockFrameCodec.ProtocolException.class, () -> new WebSockFrameCodec(100, true).decode(fragments, new Recorder()));
+        assertEquals(WebSockFrameCodec.CLOSE_TOO_BIG, e.getCloseCode());
+        e = assertThrows(WebSockFrameCodec.ProtocolException.class, () -> new WebSockFrameCodec(1 << 20, true)
+                .decode(ByteBuffer.wrap(clientFrame(WebSockFrameCodec.OP_PING, true, new byte[126])), new Recorder()));
+        assertEquals(WebSockFrameCodec.CLOSE_PROTOCOL_ERROR, e.getCloseCode());
+    }
+
+    @Test
+    void invalidTextIsRejected() {
+        WebSockFrameCodec.ProtocolException e = assertThrows(WebSockFrameCodec.ProtocolException.class, () -> new WebSockFrameCodec(100, true)
+                .decode(ByteBuffer.wrap(clientFrame(WebSockFrameCodec.OP_TEXT, true, new byte[] {(byte) 0xC3, (byte) 0x28})), new Recorder()));
+        assertEquals(WebSockFrameCodec.CLOSE_BAD_DATA, e.getCloseCode());
+    }
+
+    @Test
+    void closeFramesRoundTripAndTruncateWholeCharacters() throws Exception {
+        String reason = "é".repeat(100); //two bytes each, so cut to 61 characters (122 bytes) rather than mid character
+        ByteBuffer[] frame = WebSockFrameCodec.closeFrame(WebSockFrameCodec.CLOSE_GOING_AWAY, reason);
+        byte[] payload = new byte[frame[1].remaining()];
+        frame[1].get(payload);
+        Recorder recorder = new Recorder();
+        new WebSockFrameCodec(1 << 20, true).decode(ByteBuffer.wrap(clientFrame(WebSockFrameCodec.OP_CLOSE, true, payload)), recorder);
+        assertEquals(List.of("close:" + WebSockFrameCodec.CLOSE_GOING_AWAY + ":" + "é".repeat(61)), recorder.events);
+    }
+}